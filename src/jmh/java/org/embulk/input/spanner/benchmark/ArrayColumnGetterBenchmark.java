@@ -0,0 +1,96 @@
+package org.embulk.input.spanner.benchmark;
+
+import com.google.cloud.spanner.ResultSets;
+import com.google.cloud.spanner.Struct;
+import com.google.cloud.spanner.Type;
+import com.google.cloud.spanner.Type.StructField;
+import com.google.cloud.spanner.Value;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.embulk.input.spanner.jdbc.getter.ArrayColumnGetter;
+import org.embulk.spi.Column;
+import org.embulk.spi.PageBuilder;
+import org.embulk.spi.Schema;
+import org.embulk.spi.type.Types;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+// NOTE: Measures ArrayColumnGetter, which builds the msgpack value of an ARRAY column per row.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ArrayColumnGetterBenchmark {
+  static final int ROWS = 10_000;
+
+  @Param({"INT64", "STRING"})
+  public String elementType;
+
+  @Param({"10"})
+  public int elements;
+
+  private Type rowType;
+  private List<Struct> rows;
+  private Column column;
+  private PageBuilder pageBuilder;
+  private ArrayColumnGetter getter;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    rows = new ArrayList<>(ROWS);
+    switch (elementType) {
+      case "INT64":
+        rowType = Type.struct(StructField.of("v", Type.array(Type.int64())));
+        for (int i = 0; i < ROWS; i++) {
+          long[] values = new long[elements];
+          for (int j = 0; j < elements; j++) {
+            values[j] = (long) i * elements + j;
+          }
+          rows.add(Struct.newBuilder().set("v").to(Value.int64Array(values)).build());
+        }
+        break;
+      case "STRING":
+        rowType = Type.struct(StructField.of("v", Type.array(Type.string())));
+        for (int i = 0; i < ROWS; i++) {
+          List<String> values = new ArrayList<>(elements);
+          for (int j = 0; j < elements; j++) {
+            values.add("value-" + i + "-" + j);
+          }
+          rows.add(Struct.newBuilder().set("v").to(Value.stringArray(values)).build());
+        }
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown elementType: " + elementType);
+    }
+
+    Schema schema = Schema.builder().add("v", Types.JSON).build();
+    column = schema.getColumn(0);
+    pageBuilder = BenchmarkSupport.newPageBuilder(schema);
+    getter = new ArrayColumnGetter(pageBuilder, Types.JSON);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    pageBuilder.close();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public void jdbc() throws SQLException {
+    java.sql.ResultSet rs = BenchmarkSupport.toJdbcResultSet(ResultSets.forRows(rowType, rows));
+    while (rs.next()) {
+      getter.getAndSet(rs, 1, column);
+      pageBuilder.addRecord();
+    }
+  }
+}
@@ -0,0 +1,53 @@
+package org.embulk.input.spanner.benchmark;
+
+import com.google.cloud.spanner.ResultSet;
+import org.embulk.deps.buffer.PooledBufferAllocatorImpl;
+import org.embulk.input.jdbc.JdbcColumnOption;
+import org.embulk.input.spanner.JdbcDriverHandles;
+import org.embulk.spi.BufferAllocator;
+import org.embulk.spi.Page;
+import org.embulk.spi.PageBuilder;
+import org.embulk.spi.PageOutput;
+import org.embulk.spi.Schema;
+import org.embulk.util.config.ConfigMapperFactory;
+
+class BenchmarkSupport {
+  private static final ConfigMapperFactory CONFIG_MAPPER_FACTORY =
+      ConfigMapperFactory.builder().addDefaultModules().build();
+
+  private BenchmarkSupport() {}
+
+  // NOTE: Pages are released as soon as they are flushed, so that the benchmarks measure only the
+  //       cost of reading the values and building the pages.
+  static class DiscardPageOutput implements PageOutput {
+    @Override
+    public void add(Page page) {
+      page.release();
+    }
+
+    @Override
+    public void finish() {}
+
+    @Override
+    public void close() {}
+  }
+
+  @SuppressWarnings("deprecation")
+  static PageBuilder newPageBuilder(Schema schema) {
+    BufferAllocator allocator = PooledBufferAllocatorImpl.create();
+    return new PageBuilder(allocator, schema, new DiscardPageOutput());
+  }
+
+  static JdbcColumnOption newColumnOption(String valueType) {
+    return CONFIG_MAPPER_FACTORY
+        .createConfigMapper()
+        .map(
+            CONFIG_MAPPER_FACTORY.newConfigSource().set("value_type", valueType),
+            JdbcColumnOption.class);
+  }
+
+  // NOTE: Wraps the ResultSet by the method handle that ParallelRead uses for the Read API.
+  static java.sql.ResultSet toJdbcResultSet(ResultSet rs) {
+    return JdbcDriverHandles.toJdbcResultSet(null, rs);
+  }
+}
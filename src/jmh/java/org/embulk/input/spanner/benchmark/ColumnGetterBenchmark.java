@@ -0,0 +1,175 @@
+package org.embulk.input.spanner.benchmark;
+
+import com.google.cloud.ByteArray;
+import com.google.cloud.Date;
+import com.google.cloud.Timestamp;
+import com.google.cloud.spanner.ResultSet;
+import com.google.cloud.spanner.ResultSets;
+import com.google.cloud.spanner.Struct;
+import com.google.cloud.spanner.Type;
+import com.google.cloud.spanner.Type.StructField;
+import com.google.cloud.spanner.Value;
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.embulk.input.jdbc.JdbcColumn;
+import org.embulk.input.jdbc.JdbcColumnOption;
+import org.embulk.input.jdbc.getter.ColumnGetter;
+import org.embulk.input.spanner.getter.SpannerColumnGetter;
+import org.embulk.input.spanner.getter.SpannerColumnGetterFactory;
+import org.embulk.input.spanner.jdbc.getter.SpannerJdbcColumnGetterFactory;
+import org.embulk.spi.Column;
+import org.embulk.spi.PageBuilder;
+import org.embulk.spi.Schema;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+// NOTE: Compares the JDBC column getters with the native ones for a single column. Each operation
+//       is a row, so the score is the time per row and gc.alloc.rate.norm of the gc profiler is
+//       the allocated bytes per row.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ColumnGetterBenchmark {
+  static final int ROWS = 10_000;
+
+  @Param({"INT64", "FLOAT64", "NUMERIC", "STRING", "BYTES", "TIMESTAMP", "DATE", "JSON"})
+  public String spannerType;
+
+  private Type rowType;
+  private List<Struct> rows;
+  private Column column;
+  private PageBuilder pageBuilder;
+  private ColumnGetter jdbcGetter;
+  private SpannerColumnGetter spannerGetter;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    Type type;
+    JdbcColumn jdbcColumn;
+    String valueType = "coalesce";
+    switch (spannerType) {
+      case "INT64":
+        type = Type.int64();
+        jdbcColumn = new JdbcColumn("v", "INT64", Types.BIGINT, 19, 0);
+        break;
+      case "FLOAT64":
+        type = Type.float64();
+        jdbcColumn = new JdbcColumn("v", "FLOAT64", Types.DOUBLE, 15, 0);
+        break;
+      case "NUMERIC":
+        type = Type.numeric();
+        jdbcColumn = new JdbcColumn("v", "NUMERIC", Types.NUMERIC, 38, 9);
+        break;
+      case "STRING":
+        type = Type.string();
+        jdbcColumn = new JdbcColumn("v", "STRING", Types.NVARCHAR, 0, 0);
+        break;
+      case "BYTES":
+        type = Type.bytes();
+        jdbcColumn = new JdbcColumn("v", "BYTES", Types.BINARY, 0, 0);
+        valueType = "string";
+        break;
+      case "TIMESTAMP":
+        type = Type.timestamp();
+        jdbcColumn = new JdbcColumn("v", "TIMESTAMP", Types.TIMESTAMP, 0, 0);
+        break;
+      case "DATE":
+        type = Type.date();
+        jdbcColumn = new JdbcColumn("v", "DATE", Types.DATE, 10, 0);
+        break;
+      case "JSON":
+        type = Type.json();
+        jdbcColumn = new JdbcColumn("v", "JSON", Types.OTHER, 0, 0);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown spannerType: " + spannerType);
+    }
+
+    rowType = Type.struct(StructField.of("v", type));
+    rows = new ArrayList<>(ROWS);
+    for (int i = 0; i < ROWS; i++) {
+      rows.add(Struct.newBuilder().set("v").to(newValue(i)).build());
+    }
+
+    JdbcColumnOption option = BenchmarkSupport.newColumnOption(valueType);
+    // NOTE: The embulk type is resolved without the PageBuilder, and then the PageBuilder for the
+    //       schema is passed to the getters.
+    org.embulk.spi.type.Type toType =
+        new SpannerJdbcColumnGetterFactory(null, ZoneId.of("UTC"))
+            .newColumnGetter(null, null, jdbcColumn, option)
+            .getToType();
+    Schema schema = Schema.builder().add("v", toType).build();
+    column = schema.getColumn(0);
+    pageBuilder = BenchmarkSupport.newPageBuilder(schema);
+    jdbcGetter =
+        new SpannerJdbcColumnGetterFactory(pageBuilder, ZoneId.of("UTC"))
+            .newColumnGetter(null, null, jdbcColumn, option);
+    spannerGetter =
+        new SpannerColumnGetterFactory(pageBuilder)
+            .newColumnGetter(jdbcColumn, option, column.getType())
+            .orElseThrow(
+                () -> new IllegalStateException(spannerType + " is not supported natively."));
+  }
+
+  private Value newValue(int i) {
+    switch (spannerType) {
+      case "INT64":
+        return Value.int64(i);
+      case "FLOAT64":
+        return Value.float64(i * 1.5);
+      case "NUMERIC":
+        return Value.numeric(BigDecimal.valueOf(i, 2));
+      case "STRING":
+        return Value.string("value-" + i);
+      case "BYTES":
+        return Value.bytes(ByteArray.copyFrom("value-" + i));
+      case "TIMESTAMP":
+        return Value.timestamp(Timestamp.ofTimeMicroseconds(1_600_000_000_000_000L + i));
+      case "DATE":
+        return Value.date(Date.fromYearMonthDay(2021, 1 + i % 12, 1 + i % 28));
+      case "JSON":
+        return Value.json("{\"id\":" + i + ",\"name\":\"value-" + i + "\"}");
+      default:
+        throw new IllegalArgumentException("Unknown spannerType: " + spannerType);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    pageBuilder.close();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public void jdbc() throws SQLException {
+    java.sql.ResultSet rs = BenchmarkSupport.toJdbcResultSet(ResultSets.forRows(rowType, rows));
+    while (rs.next()) {
+      jdbcGetter.getAndSet(rs, 1, column);
+      pageBuilder.addRecord();
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public void spanner() {
+    ResultSet rs = ResultSets.forRows(rowType, rows);
+    while (rs.next()) {
+      spannerGetter.getAndSet(rs, 0, column);
+      pageBuilder.addRecord();
+    }
+  }
+}
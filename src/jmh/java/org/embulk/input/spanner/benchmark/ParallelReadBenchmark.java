@@ -0,0 +1,109 @@
+package org.embulk.input.spanner.benchmark;
+
+import com.google.cloud.spanner.ResultSet;
+import com.google.cloud.spanner.SpannerOptions;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import org.embulk.input.spanner.ReadOptions;
+import org.embulk.input.spanner.SpannerClient;
+import org.embulk.input.spanner.SpannerClient.ParallelRead;
+import org.embulk.input.spanner.extension.spanner.MockSpannerServer;
+import org.embulk.input.spanner.extension.spanner.MockSpannerServer.QueryResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+// NOTE: Reads all the partitions of a query from MockSpannerServer by ParallelRead, so the
+//       throughput of the partitioned read can be measured without Spanner. The latency is added to
+//       each ExecuteStreamingSql call, which stands for the time to the first byte of a partition.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ParallelReadBenchmark {
+  static final int ROWS = 100_000;
+  static final String QUERY = "SELECT v FROM numbers";
+
+  static final String TEST_PROJECT = "test-project";
+  static final String TEST_INSTANCE = "test-instance";
+  static final String TEST_DATABASE = "test-database";
+
+  @Param({"1", "8", "32"})
+  public int partitions;
+
+  @Param({"1", "4"})
+  public int partitionConcurrency;
+
+  @Param({"0", "20"})
+  public long latencyMillis;
+
+  private MockSpannerServer server;
+  private Connection connection;
+  private PreparedStatement statement;
+  private SpannerClient client;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    server = new MockSpannerServer();
+    server.putQuery(QUERY, QueryResult.int64Sequence("v", ROWS));
+    server.setPartitions(partitions);
+    server.setLatency(
+        MockSpannerServer.EXECUTE_STREAMING_SQL, latencyMillis, TimeUnit.MILLISECONDS);
+
+    Properties props = new Properties();
+    props.setProperty("usePlainText", "true");
+    props.setProperty("readonly", "true");
+    connection =
+        DriverManager.getConnection(
+            String.format(
+                "jdbc:cloudspanner://%s:%d/projects/%s/instances/%s/databases/%s",
+                server.getHost(), server.getPort(), TEST_PROJECT, TEST_INSTANCE, TEST_DATABASE),
+            props);
+    statement = connection.prepareStatement(QUERY);
+
+    client =
+        new SpannerClient(
+            SpannerOptions.newBuilder()
+                .setProjectId(TEST_PROJECT)
+                .setEmulatorHost(server.getHost() + ":" + server.getPort())
+                .build()
+                .getService(),
+            TEST_PROJECT,
+            TEST_INSTANCE,
+            TEST_DATABASE,
+            ReadOptions.builder().partitionConcurrency(partitionConcurrency).build());
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    client.close();
+    statement.close();
+    connection.close();
+    server.close();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public long read() {
+    long sum = 0;
+    try (ParallelRead read = client.newParallelRead(statement)) {
+      ResultSet rs;
+      while ((rs = read.fetch()) != null) {
+        while (rs.next()) {
+          sum += rs.getLong(0);
+        }
+      }
+    }
+    return sum;
+  }
+}
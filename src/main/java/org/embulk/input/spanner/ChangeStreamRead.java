@@ -0,0 +1,351 @@
+package org.embulk.input.spanner;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.spanner.ResultSet;
+import com.google.cloud.spanner.SpannerException;
+import com.google.cloud.spanner.Statement;
+import com.google.cloud.spanner.Struct;
+import com.google.cloud.spanner.Type;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import org.embulk.config.ConfigException;
+import org.embulk.input.spanner.SpannerInputPlugin.PluginTask;
+import org.embulk.spi.Column;
+import org.embulk.spi.PageBuilder;
+import org.embulk.spi.Schema;
+import org.embulk.spi.type.Types;
+import org.embulk.util.json.JsonParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// NOTE: Reads the data change records of a change stream between two timestamps for
+//       `read_mode: change_stream` by the `READ_<change stream>` function. The first query reads
+//       the root partition, and the child partitions that Spanner reports are read on a worker
+//       pool as they are found. The data change records are handed to the consumer through a
+//       bounded queue in the order they are read, so they are not ordered across the partitions.
+public class ChangeStreamRead implements AutoCloseable {
+  private static final Logger logger = LoggerFactory.getLogger(ChangeStreamRead.class);
+
+  public static final String CHANGE_STREAM = "change_stream";
+
+  static final int QUEUE_RECORDS = 1000;
+
+  private static final Pattern NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+  // NOTE: A row is a mod of a data change record.
+  public static final Schema SCHEMA =
+      Schema.builder()
+          .add("commit_timestamp", Types.TIMESTAMP)
+          .add("record_sequence", Types.STRING)
+          .add("server_transaction_id", Types.STRING)
+          .add("table_name", Types.STRING)
+          .add("mod_type", Types.STRING)
+          .add("value_capture_type", Types.STRING)
+          .add("keys", Types.JSON)
+          .add("new_values", Types.JSON)
+          .add("old_values", Types.JSON)
+          .build();
+
+  public static boolean isChangeStream(PluginTask task) {
+    return CHANGE_STREAM.equals(task.getReadMode());
+  }
+
+  public static void validate(PluginTask task) {
+    if (!isChangeStream(task)) {
+      if (task.getChangeStream().isPresent()) {
+        throw new ConfigException("'change_stream' requires 'read_mode: change_stream'.");
+      }
+      return;
+    }
+    if (!task.getChangeStream().isPresent()
+        || !NAME.matcher(task.getChangeStream().get()).matches()) {
+      throw new ConfigException(
+          "'read_mode: change_stream' requires the name of the change stream as 'change_stream'.");
+    }
+    if (task.getQuery().isPresent() || task.getTable().isPresent() || task.getIncremental()) {
+      throw new ConfigException(
+          "'query', 'table' and 'incremental' are not supported by 'read_mode: change_stream'.");
+    }
+    if (!task.getChangeStreamStartTimestamp().isPresent()
+        && !task.getLastChangeStreamTimestamp().isPresent()) {
+      throw new ConfigException(
+          "'read_mode: change_stream' requires 'change_stream_start_timestamp' or"
+              + " 'last_change_stream_timestamp'.");
+    }
+    if (task.getChangeStreamHeartbeatMillis() < 1) {
+      throw new ConfigException("'change_stream_heartbeat_millis' must be greater than 0.");
+    }
+    startTimestampOf(task);
+    task.getChangeStreamEndTimestamp()
+        .ifPresent(ts -> parseTimestamp("change_stream_end_timestamp", ts));
+  }
+
+  // NOTE: The records at `last_change_stream_timestamp` were read by the last run, so the read
+  //       starts a microsecond after it, which is the precision of the commit timestamps.
+  public static Timestamp startTimestampOf(PluginTask task) {
+    if (task.getLastChangeStreamTimestamp().isPresent()) {
+      Timestamp last =
+          parseTimestamp("last_change_stream_timestamp", task.getLastChangeStreamTimestamp().get());
+      return Timestamp.ofTimeMicroseconds(
+          TimeUnit.SECONDS.toMicros(last.getSeconds())
+              + TimeUnit.NANOSECONDS.toMicros(last.getNanos())
+              + 1);
+    }
+    return parseTimestamp(
+        "change_stream_start_timestamp", task.getChangeStreamStartTimestamp().get());
+  }
+
+  private static Timestamp parseTimestamp(String name, String value) {
+    try {
+      return Timestamp.parseTimestamp(value);
+    } catch (IllegalArgumentException e) {
+      throw new ConfigException(String.format("'%s' must be RFC 3339 format: %s", name, value), e);
+    }
+  }
+
+  private static class Item {
+    static final Item END = new Item(null, null);
+
+    final Struct record;
+    final Throwable error;
+
+    Item(Struct record, Throwable error) {
+      this.record = record;
+      this.error = error;
+    }
+  }
+
+  private final String changeStream;
+  private final Timestamp end;
+  private final long heartbeatMillis;
+  private final Function<Statement, ResultSet> executeQuery;
+  private final PartitionRetryPolicy retryPolicy;
+  private final Set<String> partitionTokens = ConcurrentHashMap.newKeySet();
+  private final AtomicInteger pendingPartitions = new AtomicInteger(0);
+  private final BlockingQueue<Item> queue = new ArrayBlockingQueue<>(QUEUE_RECORDS);
+  private final ExecutorService executor;
+  private final JsonParser jsonParser = new JsonParser();
+  private boolean finished = false;
+
+  // NOTE: executeQuery executes a query of the change stream in a strong single-use read-only
+  //       transaction, which the change stream queries require.
+  public ChangeStreamRead(
+      String changeStream,
+      Timestamp start,
+      Timestamp end,
+      long heartbeatMillis,
+      Function<Statement, ResultSet> executeQuery,
+      int concurrency,
+      PartitionRetryPolicy retryPolicy) {
+    this.changeStream = changeStream;
+    this.end = end;
+    this.heartbeatMillis = heartbeatMillis;
+    this.executeQuery = executeQuery;
+    this.retryPolicy = retryPolicy;
+
+    AtomicInteger threadIdx = new AtomicInteger(0);
+    this.executor =
+        Executors.newFixedThreadPool(
+            Math.max(1, concurrency),
+            r -> {
+              Thread t =
+                  new Thread(r, "spanner-change-stream-reader-" + threadIdx.getAndIncrement());
+              t.setDaemon(true);
+              return t;
+            });
+    logger.info(
+        "Read the change stream '{}' from {} to {} with {} workers.",
+        changeStream,
+        start,
+        end,
+        Math.max(1, concurrency));
+    if (start.compareTo(end) > 0) {
+      finished = true;
+      return;
+    }
+    submit(null, start);
+  }
+
+  // NOTE: A partition is read once even if it is a child of several partitions that are merged.
+  private void submit(String token, Timestamp start) {
+    if (token != null && !partitionTokens.add(token)) {
+      return;
+    }
+    pendingPartitions.incrementAndGet();
+    executor.submit(() -> work(token, start));
+  }
+
+  private void work(String token, Timestamp start) {
+    try {
+      readPartition(token, start);
+      if (pendingPartitions.decrementAndGet() == 0) {
+        queue.put(Item.END);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (Throwable e) {
+      // NOTE: Errors such as OutOfMemoryError are handed to the consumer as well, otherwise the
+      //       pending partition is never finished and it waits forever.
+      try {
+        queue.put(new Item(null, e));
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  // NOTE: A partition returns the same data change records in the same order for the same
+  //       timestamps, so when the stream fails, the partition is read again, and the records that
+  //       were already handed to the queue are skipped.
+  private void readPartition(String token, Timestamp start) throws InterruptedException {
+    logger.info("Read the change stream partition {} from {}.", token, start);
+    long queuedRecords = 0;
+    int retries = 0;
+    while (true) {
+      long records = 0;
+      try (ResultSet rs = executeQuery.apply(statementOf(token, start))) {
+        while (rs.next()) {
+          for (Struct changeRecord : rs.getStructList(0)) {
+            for (Struct record : changeRecord.getStructList("data_change_record")) {
+              if (records++ >= queuedRecords) {
+                queue.put(new Item(record, null));
+                queuedRecords++;
+              }
+            }
+            for (Struct record : changeRecord.getStructList("child_partitions_record")) {
+              for (Struct child : record.getStructList("child_partitions")) {
+                submit(child.getString("token"), record.getTimestamp("start_timestamp"));
+              }
+            }
+          }
+        }
+        return;
+      } catch (SpannerException e) {
+        long backoff = retryPolicy.backoff(e, retries);
+        retries++;
+        logger.warn(
+            "Retry the change stream partition {} after {} ms, skipping {} records that were"
+                + " read. ({}/{})",
+            token,
+            backoff,
+            queuedRecords,
+            retries,
+            retryPolicy.getMaxRetries(),
+            e);
+      }
+    }
+  }
+
+  static String queryOf(String changeStream) {
+    return "SELECT ChangeRecord FROM READ_"
+        + changeStream
+        + " (start_timestamp => @start_timestamp, end_timestamp => @end_timestamp,"
+        + " partition_token => @partition_token,"
+        + " heartbeat_milliseconds => @heartbeat_milliseconds)";
+  }
+
+  private Statement statementOf(String token, Timestamp start) {
+    return Statement.newBuilder(queryOf(changeStream))
+        .bind("start_timestamp")
+        .to(start)
+        .bind("end_timestamp")
+        .to(end)
+        .bind("partition_token")
+        .to(token)
+        .bind("heartbeat_milliseconds")
+        .to(heartbeatMillis)
+        .build();
+  }
+
+  // NOTE: Returns null when all the partitions are read.
+  public Struct fetch() {
+    if (finished) {
+      return null;
+    }
+    Item item;
+    try {
+      item = queue.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+    if (item.error != null) {
+      finished = true;
+      if (item.error instanceof Error) {
+        throw (Error) item.error;
+      }
+      throw (RuntimeException) item.error;
+    }
+    if (item == Item.END) {
+      finished = true;
+      return null;
+    }
+    return item.record;
+  }
+
+  // NOTE: Adds a row of SCHEMA for each mod of the data change record, and returns the number of
+  //       the rows.
+  @SuppressWarnings("deprecation")
+  public int addRecords(Struct record, PageBuilder to) {
+    List<Column> columns = to.getSchema().getColumns();
+    Timestamp commitTimestamp = record.getTimestamp("commit_timestamp");
+    List<Struct> mods = record.getStructList("mods");
+    for (Struct mod : mods) {
+      to.setTimestamp(
+          columns.get(0),
+          org.embulk.spi.time.Timestamp.ofEpochSecond(
+              commitTimestamp.getSeconds(), commitTimestamp.getNanos()));
+      to.setString(columns.get(1), record.getString("record_sequence"));
+      to.setString(columns.get(2), record.getString("server_transaction_id"));
+      to.setString(columns.get(3), record.getString("table_name"));
+      to.setString(columns.get(4), record.getString("mod_type"));
+      to.setString(columns.get(5), record.getString("value_capture_type"));
+      setJson(to, columns.get(6), jsonOf(mod, "keys"));
+      setJson(to, columns.get(7), jsonOf(mod, "new_values"));
+      setJson(to, columns.get(8), jsonOf(mod, "old_values"));
+      to.addRecord();
+    }
+    return mods.size();
+  }
+
+  // NOTE: The values are JSON in GoogleSQL databases and STRING in the older versions.
+  private static Optional<String> jsonOf(Struct mod, String name) {
+    if (mod.isNull(name)) {
+      return Optional.empty();
+    }
+    if (mod.getColumnType(name).getCode() == Type.Code.JSON) {
+      return Optional.of(mod.getJson(name));
+    }
+    return Optional.of(mod.getString(name));
+  }
+
+  private void setJson(PageBuilder to, Column column, Optional<String> json) {
+    if (json.isPresent()) {
+      to.setJson(column, jsonParser.parse(json.get()));
+    } else {
+      to.setNull(column);
+    }
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+    try {
+      if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+        logger.warn("Change stream readers did not terminate in 30 seconds.");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
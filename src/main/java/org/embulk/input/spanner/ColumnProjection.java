@@ -0,0 +1,50 @@
+package org.embulk.input.spanner;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import org.embulk.config.ConfigException;
+import org.embulk.input.spanner.SpannerInputPlugin.PluginTask;
+
+// NOTE: The columns of `table` to read for `include_columns` and `exclude_columns`. They are
+//       rewritten into `select` before the query schema is fetched, so the generated query and
+//       the column list of `read_mode: table_read` do not read the other columns from Spanner.
+public class ColumnProjection {
+  private ColumnProjection() {}
+
+  public static void validate(PluginTask task) {
+    if (!task.getIncludeColumns().isPresent() && !task.getExcludeColumns().isPresent()) {
+      return;
+    }
+    if (task.getIncludeColumns().isPresent() && task.getExcludeColumns().isPresent()) {
+      throw new ConfigException("'include_columns' and 'exclude_columns' cannot be used together.");
+    }
+    if (task.getQuery().isPresent() || !task.getTable().isPresent()) {
+      throw new ConfigException(
+          "'include_columns' and 'exclude_columns' require 'table' instead of 'query'.");
+    }
+    if (task.getSelect().isPresent() && !task.getSelect().get().trim().equals("*")) {
+      throw new ConfigException(
+          "'include_columns' and 'exclude_columns' cannot be used with 'select'.");
+    }
+    if (task.getIncludeColumns().map(List::isEmpty).orElse(false)) {
+      throw new ConfigException("'include_columns' must not be empty.");
+    }
+    if (task.getExcludeColumns().map(List::isEmpty).orElse(false)) {
+      throw new ConfigException("'exclude_columns' must not be empty.");
+    }
+  }
+
+  // NOTE: The Read API takes the column names of the query schema, so `SELECT * EXCEPT` works for
+  //       `read_mode: table_read` as well as the generated query.
+  public static Optional<String> selectOf(PluginTask task) {
+    if (task.getIncludeColumns().isPresent()) {
+      return Optional.of(listOf(task.getIncludeColumns().get()));
+    }
+    return task.getExcludeColumns().map(columns -> "* EXCEPT (" + listOf(columns) + ")");
+  }
+
+  private static String listOf(List<String> columns) {
+    return columns.stream().map(Subquery::quote).collect(Collectors.joining(", "));
+  }
+}
@@ -0,0 +1,96 @@
+package org.embulk.input.spanner;
+
+import com.google.cloud.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Optional;
+import org.embulk.config.ConfigException;
+import org.embulk.input.jdbc.JdbcColumn;
+import org.embulk.input.jdbc.JdbcInputConnection.PreparedQuery;
+import org.embulk.input.jdbc.JdbcSchema;
+import org.embulk.input.spanner.SpannerInputPlugin.PluginTask;
+
+// NOTE: The incremental loading by a commit timestamp column for `commit_timestamp_column`. The
+//       query reads the rows committed after the read timestamp of the last run and up to the read
+//       timestamp of this run, which is fixed before the query is executed. A transaction that is
+//       not visible at the read timestamp commits after it, so the next run reads its rows even
+//       if the rows are read by partitions in any order.
+public class CommitTimestampRange {
+  static final String SUBQUERY_ALIAS = "embulk_commit_timestamp_range";
+
+  private static final DateTimeFormatter LITERAL_FORMAT =
+      DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSSSSSSS").withZone(ZoneOffset.UTC);
+
+  private CommitTimestampRange() {}
+
+  public static void validate(PluginTask task) {
+    if (!task.getCommitTimestampColumn().isPresent()) {
+      return;
+    }
+    if (task.getIncremental()) {
+      throw new ConfigException(
+          "'commit_timestamp_column' cannot be used with 'incremental: true', which orders the"
+              + " rows by the incremental columns.");
+    }
+    if (!TableRead.QUERY.equals(task.getReadMode())) {
+      throw new ConfigException("'commit_timestamp_column' requires 'read_mode: query'.");
+    }
+    task.getLastCommitTimestamp().ifPresent(CommitTimestampRange::parseLastCommitTimestamp);
+  }
+
+  private static Timestamp parseLastCommitTimestamp(String value) {
+    try {
+      return Timestamp.parseTimestamp(value);
+    } catch (IllegalArgumentException e) {
+      throw new ConfigException("'last_commit_timestamp' must be RFC 3339 format: " + value, e);
+    }
+  }
+
+  // NOTE: Filters the built query by the range of the commit timestamps.
+  public static PreparedQuery apply(PluginTask task, Timestamp readTimestamp) {
+    String column = task.getCommitTimestampColumn().get();
+    checkColumn(task.getQuerySchema(), column);
+    PreparedQuery query = task.getBuiltQuery();
+    return new PreparedQuery(
+        wrap(
+            query.getQuery(),
+            column,
+            task.getLastCommitTimestamp().map(CommitTimestampRange::parseLastCommitTimestamp),
+            readTimestamp),
+        query.getParameters());
+  }
+
+  static String wrap(
+      String sql, String column, Optional<Timestamp> lowerBound, Timestamp upperBound) {
+    String key = Subquery.columnOf(SUBQUERY_ALIAS, column);
+    StringBuilder sb = new StringBuilder(Subquery.filter(sql, SUBQUERY_ALIAS));
+    lowerBound.ifPresent(ts -> sb.append(key).append(" > ").append(literalOf(ts)).append(" AND "));
+    sb.append(key).append(" <= ").append(literalOf(upperBound));
+    return sb.toString();
+  }
+
+  // NOTE: The canonical format of TIMESTAMP literals in UTC with nanoseconds.
+  static String literalOf(Timestamp ts) {
+    return "TIMESTAMP '"
+        + LITERAL_FORMAT.format(Instant.ofEpochSecond(ts.getSeconds(), ts.getNanos()))
+        + "+00'";
+  }
+
+  private static void checkColumn(JdbcSchema querySchema, String column) {
+    for (JdbcColumn c : querySchema.getColumns()) {
+      if (c.getName().equals(column)) {
+        if (c.getSqlType() != Types.TIMESTAMP) {
+          throw new ConfigException(
+              String.format(
+                  "'commit_timestamp_column' must be a TIMESTAMP column: %s (%s)",
+                  column, c.getTypeName()));
+        }
+        return;
+      }
+    }
+    throw new ConfigException(
+        "'commit_timestamp_column' is not a column of the result of the query: " + column);
+  }
+}
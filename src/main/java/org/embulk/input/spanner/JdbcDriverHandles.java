@@ -0,0 +1,172 @@
+package org.embulk.input.spanner;
+
+import com.google.cloud.spanner.ResultSet;
+import com.google.cloud.spanner.Spanner;
+import com.google.cloud.spanner.Statement;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.embulk.config.ConfigException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// NOTE: The non-public methods of the JDBC driver that ParallelRead calls for every partition.
+//       They are resolved once into method handles instead of looking them up on each call, and
+//       a driver that does not have them, such as an incompatible one of `driver_path`, fails with
+//       the name of the missing method.
+public class JdbcDriverHandles {
+  private static final Logger logger = LoggerFactory.getLogger(JdbcDriverHandles.class);
+
+  private static final String CONNECTION_CLASS =
+      "com.google.cloud.spanner.jdbc.AbstractJdbcConnection";
+  private static final String SPANNER_CONNECTION_CLASS =
+      "com.google.cloud.spanner.connection.ConnectionImpl";
+  private static final String PREPARED_STATEMENT_CLASS =
+      "com.google.cloud.spanner.jdbc.JdbcPreparedStatement";
+  private static final String RESULT_SET_CLASS = "com.google.cloud.spanner.jdbc.JdbcResultSet";
+
+  private static class Holder {
+    static final MethodHandle CREATE_STATEMENT;
+    static final MethodHandle RESULT_SET_OF;
+    static final MethodHandle RESULT_SET_OF_STATEMENT;
+    static final ConfigException ERROR;
+
+    static {
+      MethodHandle createStatement = null;
+      MethodHandle resultSetOf = null;
+      MethodHandle resultSetOfStatement = null;
+      ConfigException error = null;
+      try {
+        // https://github.com/googleapis/java-spanner-jdbc/blob/f9daa19/src/main/java/com/google/cloud/spanner/jdbc/JdbcPreparedStatement.java#L56-L64
+        createStatement =
+            unreflect(PREPARED_STATEMENT_CLASS, "createStatement")
+                .asType(MethodType.methodType(Statement.class, PreparedStatement.class));
+        // https://github.com/googleapis/java-spanner-jdbc/blob/f9daa19/src/main/java/com/google/cloud/spanner/jdbc/JdbcResultSet.java#L57-L61
+        resultSetOf =
+            unreflect(RESULT_SET_CLASS, "of", ResultSet.class)
+                .asType(MethodType.methodType(java.sql.ResultSet.class, ResultSet.class));
+        resultSetOfStatement =
+            unreflect(RESULT_SET_CLASS, "of", java.sql.Statement.class, ResultSet.class)
+                .asType(
+                    MethodType.methodType(
+                        java.sql.ResultSet.class, java.sql.Statement.class, ResultSet.class));
+      } catch (ReflectiveOperationException | RuntimeException e) {
+        error =
+            new ConfigException(
+                "The Spanner JDBC driver is not compatible with this plugin: " + e.getMessage(),
+                e);
+      }
+      CREATE_STATEMENT = createStatement;
+      RESULT_SET_OF = resultSetOf;
+      RESULT_SET_OF_STATEMENT = resultSetOfStatement;
+      ERROR = error;
+    }
+
+    private static MethodHandle unreflect(String className, String name, Class<?>... types)
+        throws ReflectiveOperationException {
+      Method m = Class.forName(className).getDeclaredMethod(name, types);
+      m.setAccessible(true);
+      return MethodHandles.lookup().unreflect(m);
+    }
+
+    static void check() {
+      if (ERROR != null) {
+        throw ERROR;
+      }
+    }
+  }
+
+  // NOTE: The Spanner instance of a JDBC connection is optional, because the client can create
+  //       another one. So a driver that does not have it is logged once instead of failing.
+  private static class SpannerHolder {
+    static final MethodHandle SPANNER_CONNECTION;
+    static final MethodHandle SPANNER;
+
+    static {
+      MethodHandle spannerConnection = null;
+      MethodHandle spanner = null;
+      try {
+        // NOTE: AbstractJdbcConnection#getSpannerConnection returns the connection of the
+        //       Connection API, and ConnectionImpl keeps the Spanner instance of SpannerPool in
+        //       `spanner`.
+        Method m = Class.forName(CONNECTION_CLASS).getDeclaredMethod("getSpannerConnection");
+        m.setAccessible(true);
+        Field f = Class.forName(SPANNER_CONNECTION_CLASS).getDeclaredField("spanner");
+        f.setAccessible(true);
+        spannerConnection =
+            MethodHandles.lookup()
+                .unreflect(m)
+                .asType(MethodType.methodType(Object.class, Connection.class));
+        spanner =
+            MethodHandles.lookup()
+                .unreflectGetter(f)
+                .asType(MethodType.methodType(Spanner.class, Object.class));
+      } catch (ReflectiveOperationException | RuntimeException e) {
+        logNotShared(e);
+      }
+      SPANNER_CONNECTION = spannerConnection;
+      SPANNER = spanner;
+    }
+  }
+
+  private static final AtomicBoolean notSharedLogged = new AtomicBoolean(false);
+
+  private static void logNotShared(Throwable e) {
+    if (notSharedLogged.compareAndSet(false, true)) {
+      logger.info(
+          "Cannot share the Spanner instance of the JDBC connection, so create another one: {}",
+          e.toString());
+    }
+  }
+
+  private JdbcDriverHandles() {}
+
+  // NOTE: Returns empty if the Spanner instance of the connection is not found.
+  public static Optional<Spanner> spannerOf(Connection con) {
+    if (SpannerHolder.SPANNER == null) {
+      return Optional.empty();
+    }
+    try {
+      Object spannerConnection = SpannerHolder.SPANNER_CONNECTION.invokeExact(con);
+      return Optional.ofNullable((Spanner) SpannerHolder.SPANNER.invokeExact(spannerConnection));
+    } catch (Error e) {
+      throw e;
+    } catch (Throwable e) {
+      logNotShared(e);
+      return Optional.empty();
+    }
+  }
+
+  // NOTE: The statement with the SQL and the parameters bound to the prepared statement.
+  public static Statement toStatement(PreparedStatement stmt) {
+    Holder.check();
+    try {
+      return (Statement) Holder.CREATE_STATEMENT.invokeExact(stmt);
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  // NOTE: stmt is the owner of the result set, which is null for the Read API.
+  public static java.sql.ResultSet toJdbcResultSet(java.sql.Statement stmt, ResultSet rs) {
+    Holder.check();
+    try {
+      if (stmt == null) {
+        return (java.sql.ResultSet) Holder.RESULT_SET_OF.invokeExact(rs);
+      }
+      return (java.sql.ResultSet) Holder.RESULT_SET_OF_STATEMENT.invokeExact(stmt, rs);
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -0,0 +1,176 @@
+package org.embulk.input.spanner;
+
+import com.google.cloud.spanner.ReadContext;
+import com.google.cloud.spanner.ResultSet;
+import com.google.cloud.spanner.Statement;
+import com.google.cloud.spanner.Type;
+import com.google.cloud.spanner.Value;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+// NOTE: Splits a query that is not root partitionable into the queries of the ranges of a key
+//       column, so that the ranges can be read concurrently in one snapshot. The boundaries of the
+//       ranges are the quantiles of the keys sampled by TABLESAMPLE, and NULL keys are read by the
+//       first range.
+public class KeyRangeSharding {
+  static final String LOWER_BOUND_PARAM = "embulk_key_range_lo";
+  static final String UPPER_BOUND_PARAM = "embulk_key_range_hi";
+  static final String SUBQUERY_ALIAS = "embulk_key_range";
+
+  static final int SAMPLES_PER_SHARD = 100;
+  static final int MAX_SAMPLES = 10_000;
+
+  static final String PRIMARY_KEY_QUERY =
+      "SELECT COLUMN_NAME FROM INFORMATION_SCHEMA.INDEX_COLUMNS"
+          + " WHERE TABLE_SCHEMA = '' AND TABLE_NAME = @table AND INDEX_NAME = 'PRIMARY_KEY'"
+          + " ORDER BY ORDINAL_POSITION LIMIT 1";
+
+  private KeyRangeSharding() {}
+
+  // NOTE: Returns empty if the table does not exist or has no primary key.
+  public static Optional<String> findFirstKeyColumn(ReadContext ctx, String table) {
+    Statement stmt = Statement.newBuilder(PRIMARY_KEY_QUERY).bind("table").to(table).build();
+    try (ResultSet rs = ctx.executeQuery(stmt)) {
+      if (rs.next()) {
+        return Optional.of(rs.getString(0));
+      }
+      return Optional.empty();
+    }
+  }
+
+  static String sampleQuery(String table, String column, int shards) {
+    int samples = Math.min(MAX_SAMPLES, shards * SAMPLES_PER_SHARD);
+    return String.format(
+        "SELECT %s FROM %s TABLESAMPLE RESERVOIR (%d ROWS)",
+        Subquery.quote(column), Subquery.quote(table), samples);
+  }
+
+  // NOTE: Returns the distinct boundaries between the ranges in ascending order, which are fewer
+  //       than shards - 1 when the keys are skewed. Returns empty if the keys cannot be split,
+  //       because the table is too small or the type of the column is not supported.
+  public static List<Value> sampleBoundaries(
+      ReadContext ctx, String table, String column, int shards) {
+    List<Value> samples = new ArrayList<>();
+    Comparator<Value> comparator = null;
+    try (ResultSet rs = ctx.executeQuery(Statement.of(sampleQuery(table, column, shards)))) {
+      while (rs.next()) {
+        if (comparator == null) {
+          comparator = comparatorOf(rs.getColumnType(0).getCode());
+          if (comparator == null) {
+            return Collections.emptyList();
+          }
+        }
+        if (!rs.isNull(0)) {
+          samples.add(valueOf(rs, rs.getColumnType(0).getCode()));
+        }
+      }
+    }
+    if (samples.isEmpty()) {
+      return Collections.emptyList();
+    }
+    samples.sort(comparator);
+
+    List<Value> boundaries = new ArrayList<>(shards - 1);
+    for (int i = 1; i < shards; i++) {
+      Value v = samples.get(i * samples.size() / shards);
+      if (comparator.compare(v, samples.get(0)) <= 0) {
+        continue;
+      }
+      if (!boundaries.isEmpty()
+          && comparator.compare(v, boundaries.get(boundaries.size() - 1)) <= 0) {
+        continue;
+      }
+      boundaries.add(v);
+    }
+    return boundaries;
+  }
+
+  // NOTE: The key column must be a column of the result of the query, because the ranges are
+  //       filtered on the result. Spanner pushes the filters down to the scan of the table when
+  //       the column comes from the key of the table.
+  public static List<Statement> shard(Statement stmt, String column, List<Value> boundaries) {
+    String key = Subquery.columnOf(SUBQUERY_ALIAS, column);
+    String base = Subquery.filter(stmt.getSql(), SUBQUERY_ALIAS);
+
+    List<Statement> shards = new ArrayList<>(boundaries.size() + 1);
+    for (int i = 0; i <= boundaries.size(); i++) {
+      String condition;
+      if (i == 0) {
+        condition = String.format("(%s < @%s OR %s IS NULL)", key, UPPER_BOUND_PARAM, key);
+      } else if (i == boundaries.size()) {
+        condition = String.format("%s >= @%s", key, LOWER_BOUND_PARAM);
+      } else {
+        condition =
+            String.format(
+                "%s >= @%s AND %s < @%s", key, LOWER_BOUND_PARAM, key, UPPER_BOUND_PARAM);
+      }
+      Statement.Builder builder = Statement.newBuilder(base + condition);
+      for (Map.Entry<String, Value> e : stmt.getParameters().entrySet()) {
+        builder.bind(e.getKey()).to(e.getValue());
+      }
+      if (i > 0) {
+        builder.bind(LOWER_BOUND_PARAM).to(boundaries.get(i - 1));
+      }
+      if (i < boundaries.size()) {
+        builder.bind(UPPER_BOUND_PARAM).to(boundaries.get(i));
+      }
+      shards.add(builder.build());
+    }
+    return shards;
+  }
+
+  // NOTE: The order of the values in Spanner. FLOAT64 is not supported because NaN does not
+  //       satisfy any of the range conditions.
+  private static Comparator<Value> comparatorOf(Type.Code code) {
+    switch (code) {
+      case INT64:
+        return Comparator.comparingLong(Value::getInt64);
+      case NUMERIC:
+        return Comparator.comparing(Value::getNumeric);
+      case STRING:
+        return (a, b) -> LastRecordTracker.compareCodePoints(a.getString(), b.getString());
+      case BYTES:
+        return (a, b) ->
+            compareUnsigned(a.getBytes().toByteArray(), b.getBytes().toByteArray());
+      case TIMESTAMP:
+        return Comparator.comparing(Value::getTimestamp);
+      case DATE:
+        return Comparator.comparing(Value::getDate);
+      default:
+        return null;
+    }
+  }
+
+  private static Value valueOf(ResultSet rs, Type.Code code) {
+    switch (code) {
+      case INT64:
+        return Value.int64(rs.getLong(0));
+      case NUMERIC:
+        return Value.numeric(rs.getBigDecimal(0));
+      case STRING:
+        return Value.string(rs.getString(0));
+      case BYTES:
+        return Value.bytes(rs.getBytes(0));
+      case TIMESTAMP:
+        return Value.timestamp(rs.getTimestamp(0));
+      case DATE:
+        return Value.date(rs.getDate(0));
+      default:
+        throw new IllegalArgumentException("Unsupported key type: " + code);
+    }
+  }
+
+  private static int compareUnsigned(byte[] a, byte[] b) {
+    for (int i = 0; i < Math.min(a.length, b.length); i++) {
+      int c = Integer.compare(a[i] & 0xff, b[i] & 0xff);
+      if (c != 0) {
+        return c;
+      }
+    }
+    return Integer.compare(a.length, b.length);
+  }
+}
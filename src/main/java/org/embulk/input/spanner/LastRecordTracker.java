@@ -0,0 +1,157 @@
+package org.embulk.input.spanner;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import org.embulk.input.jdbc.JdbcColumn;
+import org.embulk.input.jdbc.JdbcSchema;
+import org.embulk.input.jdbc.getter.ColumnGetter;
+
+// NOTE: Keeps the greatest values of the incremental columns among the rows read so far, so that
+//       `last_record` can be computed without reading the rows in order. The values are compared
+//       in the same order as Spanner's ORDER BY ASC, in which NULL is the smallest, and encoded
+//       by the column getters in the same way as the ordered incremental loading.
+public class LastRecordTracker {
+  private final List<Integer> columnIndexes;
+  private final List<Integer> sqlTypes;
+  private final List<ColumnGetter> getters;
+  private List<Object> maxValues = null;
+  private List<JsonNode> lastRecord = null;
+
+  public LastRecordTracker(
+      JdbcSchema querySchema, List<Integer> columnIndexes, List<ColumnGetter> getters) {
+    this.columnIndexes = columnIndexes;
+    this.sqlTypes = new ArrayList<>(columnIndexes.size());
+    this.getters = new ArrayList<>(columnIndexes.size());
+    for (int i : columnIndexes) {
+      this.sqlTypes.add(querySchema.getColumn(i).getSqlType());
+      this.getters.add(getters.get(i));
+    }
+  }
+
+  public static boolean isSupported(JdbcSchema querySchema, List<Integer> columnIndexes) {
+    for (int i : columnIndexes) {
+      if (!isSupported(querySchema.getColumn(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isSupported(JdbcColumn column) {
+    switch (column.getSqlType()) {
+      case Types.BIGINT:
+      case Types.DOUBLE:
+      case Types.NUMERIC:
+      case Types.NVARCHAR:
+      case Types.DATE:
+      case Types.TIMESTAMP:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  // NOTE: Must be called after the getters have read the current row of the ResultSet.
+  public void accept(ResultSet rs) throws SQLException {
+    List<Object> values = new ArrayList<>(columnIndexes.size());
+    for (int i = 0; i < columnIndexes.size(); i++) {
+      values.add(valueOf(rs, columnIndexes.get(i) + 1, sqlTypes.get(i)));
+    }
+    if (maxValues != null && compare(values, maxValues) <= 0) {
+      return;
+    }
+    maxValues = values;
+    List<JsonNode> record = new ArrayList<>(getters.size());
+    for (ColumnGetter getter : getters) {
+      record.add(getter.encodeToJson());
+    }
+    lastRecord = record;
+  }
+
+  public Optional<List<JsonNode>> getLastRecord() {
+    return Optional.ofNullable(lastRecord);
+  }
+
+  private static Object valueOf(ResultSet rs, int index, int sqlType) throws SQLException {
+    Object value;
+    switch (sqlType) {
+      case Types.BIGINT:
+        value = rs.getLong(index);
+        break;
+      case Types.DOUBLE:
+        value = rs.getDouble(index);
+        break;
+      case Types.NUMERIC:
+        value = rs.getBigDecimal(index);
+        break;
+      case Types.NVARCHAR:
+        value = rs.getString(index);
+        break;
+      case Types.DATE:
+        value = rs.getDate(index);
+        break;
+      case Types.TIMESTAMP:
+        value = rs.getTimestamp(index);
+        break;
+      default:
+        throw new IllegalArgumentException("Unsupported SQL type: " + sqlType);
+    }
+    return rs.wasNull() ? null : value;
+  }
+
+  private static int compare(List<Object> a, List<Object> b) {
+    for (int i = 0; i < a.size(); i++) {
+      int c = compare(a.get(i), b.get(i));
+      if (c != 0) {
+        return c;
+      }
+    }
+    return 0;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static int compare(Object a, Object b) {
+    if (a == null || b == null) {
+      return a == null ? (b == null ? 0 : -1) : 1;
+    }
+    if (a instanceof Double) {
+      // NOTE: Spanner orders NaN before the other FLOAT64 values.
+      double x = (Double) a;
+      double y = (Double) b;
+      if (Double.isNaN(x) || Double.isNaN(y)) {
+        return Double.isNaN(x) ? (Double.isNaN(y) ? 0 : -1) : 1;
+      }
+      return Double.compare(x, y);
+    }
+    if (a instanceof String) {
+      return compareCodePoints((String) a, (String) b);
+    }
+    if (a instanceof BigDecimal) {
+      return ((BigDecimal) a).compareTo((BigDecimal) b);
+    }
+    return ((Comparable<Object>) a).compareTo(b);
+  }
+
+  // NOTE: Spanner orders STRING values by their UTF-8 bytes, which is the order of the code
+  //       points unlike String#compareTo for the supplementary characters.
+  static int compareCodePoints(String a, String b) {
+    int i = 0;
+    int j = 0;
+    while (i < a.length() && j < b.length()) {
+      int x = a.codePointAt(i);
+      int y = b.codePointAt(j);
+      if (x != y) {
+        return Integer.compare(x, y);
+      }
+      i += Character.charCount(x);
+      j += Character.charCount(y);
+    }
+    return Integer.compare(a.length() - i, b.length() - j);
+  }
+}
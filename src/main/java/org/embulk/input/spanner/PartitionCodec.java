@@ -0,0 +1,44 @@
+package org.embulk.input.spanner;
+
+import com.google.cloud.spanner.BatchTransactionId;
+import com.google.cloud.spanner.Partition;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Base64;
+
+// NOTE: BatchTransactionId and Partition are Serializable so that they can be shipped to other
+//       workers. We keep them in the task as base64 strings of the Java serialization.
+public class PartitionCodec {
+  private PartitionCodec() {}
+
+  public static String encode(Serializable value) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(value);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return Base64.getEncoder().encodeToString(bytes.toByteArray());
+  }
+
+  public static BatchTransactionId decodeTransactionId(String encoded) {
+    return decode(encoded, BatchTransactionId.class);
+  }
+
+  public static Partition decodePartition(String encoded) {
+    return decode(encoded, Partition.class);
+  }
+
+  private static <T> T decode(String encoded, Class<T> clazz) {
+    try (ObjectInputStream in =
+        new ObjectInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(encoded)))) {
+      return clazz.cast(in.readObject());
+    } catch (IOException | ClassNotFoundException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -0,0 +1,235 @@
+package org.embulk.input.spanner;
+
+import com.google.cloud.spanner.BatchReadOnlyTransaction;
+import com.google.cloud.spanner.Partition;
+import com.google.cloud.spanner.ResultSet;
+import com.google.cloud.spanner.ResultSets;
+import com.google.cloud.spanner.SpannerException;
+import com.google.cloud.spanner.Struct;
+import com.google.cloud.spanner.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// NOTE: Executes the partitions, or the key ranges of a query that is not root partitionable, on
+//       a worker pool and hands the rows to the consumer as batches
+//       through a bounded queue, so that several streams are kept busy while the memory usage
+//       stays bounded by a few batches per worker. A batch is cut at BATCH_ROWS rows or at
+//       BATCH_BYTES of the estimated row size, whichever comes first, so wide rows do not make the
+//       buffer larger. Batches are handed in the order they are read, so partitions that finish
+//       earlier are consumed earlier.
+public class PartitionPrefetcher implements AutoCloseable {
+  private static final Logger logger = LoggerFactory.getLogger(PartitionPrefetcher.class);
+
+  static final int BATCH_ROWS = 1000;
+  static final long BATCH_BYTES = 1L << 20;
+
+  private static class Batch {
+    static final Batch END = new Batch(null, null, null);
+
+    final Type type;
+    final List<Struct> rows;
+    final Throwable error;
+
+    Batch(Type type, List<Struct> rows, Throwable error) {
+      this.type = type;
+      this.rows = rows;
+      this.error = error;
+    }
+  }
+
+  private final int count;
+  private final IntFunction<ResultSet> executePartition;
+  private final ReadMetrics metrics;
+  private final PartitionRetryPolicy retryPolicy;
+  private final Optional<RateLimiter> rateLimiter;
+  private final AtomicInteger partitionIdx = new AtomicInteger(0);
+  private final AtomicInteger runningWorkers;
+  private final BlockingQueue<Batch> queue;
+  private final ExecutorService executor;
+  private boolean finished = false;
+
+  PartitionPrefetcher(BatchReadOnlyTransaction txn, List<Partition> partitions, int concurrency) {
+    this(txn, partitions, concurrency, new ReadMetrics());
+  }
+
+  PartitionPrefetcher(
+      BatchReadOnlyTransaction txn,
+      List<Partition> partitions,
+      int concurrency,
+      ReadMetrics metrics) {
+    this(
+        partitions.size(),
+        i -> txn.execute(partitions.get(i)),
+        concurrency,
+        metrics,
+        PartitionRetryPolicy.fromReadOptions(ReadOptions.defaults()),
+        Optional.empty());
+  }
+
+  // NOTE: executePartition executes the index-th of the count partitions. The rate limiter is
+  //       shared by the workers.
+  PartitionPrefetcher(
+      int count,
+      IntFunction<ResultSet> executePartition,
+      int concurrency,
+      ReadMetrics metrics,
+      PartitionRetryPolicy retryPolicy,
+      Optional<RateLimiter> rateLimiter) {
+    this.count = count;
+    this.executePartition = executePartition;
+    this.metrics = metrics;
+    this.retryPolicy = retryPolicy;
+    this.rateLimiter = rateLimiter;
+
+    int workers = Math.max(1, Math.min(concurrency, count));
+    this.runningWorkers = new AtomicInteger(workers);
+    this.queue = new ArrayBlockingQueue<>(workers * 2);
+    AtomicInteger threadIdx = new AtomicInteger(0);
+    this.executor =
+        Executors.newFixedThreadPool(
+            workers,
+            r -> {
+              Thread t = new Thread(r, "spanner-partition-reader-" + threadIdx.getAndIncrement());
+              t.setDaemon(true);
+              return t;
+            });
+    logger.info("Prefetch {} partitions with {} workers.", count, workers);
+    for (int i = 0; i < workers; i++) {
+      this.executor.submit(this::work);
+    }
+  }
+
+  // NOTE: Returns null when all the partitions are consumed.
+  public ResultSet fetch() {
+    if (finished) {
+      return null;
+    }
+    Batch batch;
+    try {
+      batch = queue.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+    if (batch.error != null) {
+      finished = true;
+      if (batch.error instanceof Error) {
+        throw (Error) batch.error;
+      }
+      throw (RuntimeException) batch.error;
+    }
+    if (batch == Batch.END) {
+      finished = true;
+      return null;
+    }
+    return ResultSets.forRows(batch.type, batch.rows);
+  }
+
+  private void work() {
+    try {
+      while (true) {
+        int currentPartitionIdx = partitionIdx.getAndIncrement();
+        if (currentPartitionIdx >= count) {
+          break;
+        }
+        logger.info("Load the partition that index of {}", currentPartitionIdx);
+        readPartition(currentPartitionIdx);
+      }
+      if (runningWorkers.decrementAndGet() == 0) {
+        queue.put(Batch.END);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (Throwable e) {
+      // NOTE: Errors such as OutOfMemoryError are handed to the consumer as well, otherwise it
+      //       waits for the end of the workers forever.
+      try {
+        queue.put(new Batch(null, null, e));
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  // NOTE: When the stream fails, the partition is executed again, and the rows that were already
+  //       handed to the queue are skipped.
+  private void readPartition(int index) throws InterruptedException {
+    long startNanos = System.nanoTime();
+    long queuedRows = 0;
+    int retries = 0;
+    while (true) {
+      ResultSet measured = metrics.measure(index, startNanos, executePartition.apply(index));
+      ResultSet rs = RateLimiter.limit(rateLimiter, measured);
+      boolean read = false;
+      SpannerException failure;
+      try {
+        PartitionRetryPolicy.skipReadRows(measured, queuedRows, index);
+        Type type = null;
+        List<Struct> rows = new ArrayList<>(BATCH_ROWS);
+        long bytes = 0;
+        while (rs.next()) {
+          if (type == null) {
+            type = rs.getType();
+          }
+          Struct row = rs.getCurrentRowAsStruct();
+          rows.add(row);
+          bytes += ReadMetrics.estimateBytes(row);
+          if (rows.size() >= BATCH_ROWS || bytes >= BATCH_BYTES) {
+            queue.put(new Batch(type, rows, null));
+            queuedRows += rows.size();
+            rows = new ArrayList<>(BATCH_ROWS);
+            bytes = 0;
+          }
+        }
+        if (!rows.isEmpty()) {
+          queue.put(new Batch(type, rows, null));
+        }
+        read = true;
+        rs.close();
+        return;
+      } catch (SpannerException e) {
+        failure = e;
+      } finally {
+        // NOTE: The stream of a failed attempt is closed without being recorded before the backoff,
+        //       and also when the error is not retried.
+        if (!read) {
+          metrics.discard(measured);
+        }
+      }
+      long backoff = retryPolicy.backoff(failure, retries);
+      retries++;
+      metrics.recordRetry(TimeUnit.MILLISECONDS.toNanos(backoff));
+      logger.warn(
+          "Retry the partition that index of {} after {} ms, skipping {} rows that were read."
+              + " ({}/{})",
+          index,
+          backoff,
+          queuedRows,
+          retries,
+          retryPolicy.getMaxRetries(),
+          failure);
+    }
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+    try {
+      if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+        logger.warn("Partition readers did not terminate in 30 seconds.");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
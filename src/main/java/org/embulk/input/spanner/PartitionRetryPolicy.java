@@ -0,0 +1,85 @@
+package org.embulk.input.spanner;
+
+import com.google.cloud.spanner.ErrorCode;
+import com.google.cloud.spanner.ResultSet;
+import com.google.cloud.spanner.SpannerException;
+import com.google.cloud.spanner.SpannerExceptionFactory;
+import java.util.concurrent.ThreadLocalRandom;
+
+// NOTE: The Spanner client resumes a stream by its resume token only on UNAVAILABLE and some
+//       INTERNAL errors. When the stream fails in the other ways, the partition is executed again
+//       in the same transaction, and the rows that were already read are skipped. A partition
+//       returns the same rows in the same order at the same read timestamp.
+public class PartitionRetryPolicy {
+  static final long MAX_BACKOFF_MILLIS = 32_000L;
+
+  private final int maxRetries;
+  private final long initialBackoffMillis;
+
+  public PartitionRetryPolicy(int maxRetries, long initialBackoffMillis) {
+    this.maxRetries = maxRetries;
+    this.initialBackoffMillis = initialBackoffMillis;
+  }
+
+  public static PartitionRetryPolicy fromReadOptions(ReadOptions readOptions) {
+    return new PartitionRetryPolicy(
+        readOptions.getPartitionMaxRetries(), readOptions.getPartitionRetryBackoffMillis());
+  }
+
+  public int getMaxRetries() {
+    return maxRetries;
+  }
+
+  public boolean isRetryable(SpannerException error) {
+    switch (error.getErrorCode()) {
+      case UNAVAILABLE:
+      case DEADLINE_EXCEEDED:
+      case RESOURCE_EXHAUSTED:
+      case ABORTED:
+        return true;
+      default:
+        return error.isRetryable();
+    }
+  }
+
+  // NOTE: Sleeps before the retry-th retry (0-origin) and returns the backoff, or throws the error
+  //       if it must not be retried. The backoff doubles from the initial one with a jitter.
+  public long backoff(SpannerException error, int retry) {
+    if (retry >= maxRetries || !isRetryable(error)) {
+      throw error;
+    }
+    long max = maxBackoffMillis(retry);
+    long backoff = max / 2 + ThreadLocalRandom.current().nextLong(max / 2 + 1);
+    try {
+      Thread.sleep(backoff);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw SpannerExceptionFactory.propagateInterrupt(e);
+    }
+    return backoff;
+  }
+
+  // NOTE: Doubles the backoff only while it is below the cap, so that it does not overflow for a
+  //       large initial backoff or many retries.
+  long maxBackoffMillis(int retry) {
+    long max = initialBackoffMillis;
+    for (int i = 0; i < retry && max < MAX_BACKOFF_MILLIS; i++) {
+      max *= 2;
+    }
+    return Math.min(MAX_BACKOFF_MILLIS, max);
+  }
+
+  // NOTE: Skips the rows of the re-executed partition that were read before the failure.
+  public static void skipReadRows(ResultSet rs, long rows, int partitionIndex) {
+    for (long i = 0; i < rows; i++) {
+      if (!rs.next()) {
+        throw SpannerExceptionFactory.newSpannerException(
+            ErrorCode.INTERNAL,
+            String.format(
+                "The partition that index of %d returned %d rows on the retry, fewer than %d rows"
+                    + " that were read before.",
+                partitionIndex, i, rows));
+      }
+    }
+  }
+}
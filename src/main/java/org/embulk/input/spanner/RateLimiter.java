@@ -0,0 +1,134 @@
+package org.embulk.input.spanner;
+
+import com.google.cloud.spanner.ForwardingResultSet;
+import com.google.cloud.spanner.ResultSet;
+import com.google.cloud.spanner.SpannerExceptionFactory;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// NOTE: Token buckets of the rows and the bytes per second that all the partition readers of a
+//       task share. Each bucket is the theoretical arrival time of the next permit in an
+//       AtomicLong, so acquiring the permits is a single CAS without locks, and the readers
+//       acquire them in chunks of rows to keep the contention low. A bucket holds the permits of
+//       one second, so a reader can burst after it has been idle.
+public class RateLimiter {
+  static final long BURST_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  // NOTE: The rows of a chunk, whose first row is sampled to estimate the bytes of the chunk.
+  static final long CHUNK_ROWS = 100;
+
+  private static class Bucket {
+    private final double nanosPerPermit;
+    private final AtomicLong theoreticalArrivalNanos;
+
+    Bucket(long permitsPerSecond, long nowNanos) {
+      this.nanosPerPermit = (double) TimeUnit.SECONDS.toNanos(1) / permitsPerSecond;
+      this.theoreticalArrivalNanos = new AtomicLong(nowNanos);
+    }
+
+    // NOTE: Reserves the permits and returns how long the caller must wait for them. The permits
+    //       that arrive within a second from now are taken without waiting.
+    long reserve(long permits, long nowNanos) {
+      long cost = (long) Math.ceil(permits * nanosPerPermit);
+      while (true) {
+        long arrival = theoreticalArrivalNanos.get();
+        long next = Math.max(arrival, nowNanos) + cost;
+        if (theoreticalArrivalNanos.compareAndSet(arrival, next)) {
+          return Math.max(0, next - BURST_NANOS - nowNanos);
+        }
+      }
+    }
+  }
+
+  private final Optional<Bucket> rows;
+  private final Optional<Bucket> bytes;
+  private final AtomicLong waitNanos = new AtomicLong(0);
+
+  public RateLimiter(Optional<Long> maxRowsPerSecond, Optional<Long> maxBytesPerSecond) {
+    long now = System.nanoTime();
+    this.rows = maxRowsPerSecond.map(n -> new Bucket(n, now));
+    this.bytes = maxBytesPerSecond.map(n -> new Bucket(n, now));
+  }
+
+  // NOTE: Returns empty if neither `max_rows_per_second` nor `max_bytes_per_second` is set.
+  public static Optional<RateLimiter> fromReadOptions(ReadOptions readOptions) {
+    if (!readOptions.getMaxRowsPerSecond().isPresent()
+        && !readOptions.getMaxBytesPerSecond().isPresent()) {
+      return Optional.empty();
+    }
+    return Optional.of(
+        new RateLimiter(readOptions.getMaxRowsPerSecond(), readOptions.getMaxBytesPerSecond()));
+  }
+
+  // NOTE: Blocks until the rows and the bytes that have been read are within the limits.
+  public void acquire(long rowCount, long byteCount) {
+    long now = System.nanoTime();
+    long wait = 0;
+    if (rows.isPresent() && rowCount > 0) {
+      wait = Math.max(wait, rows.get().reserve(rowCount, now));
+    }
+    if (bytes.isPresent() && byteCount > 0) {
+      wait = Math.max(wait, bytes.get().reserve(byteCount, now));
+    }
+    if (wait <= 0) {
+      return;
+    }
+    waitNanos.addAndGet(wait);
+    try {
+      TimeUnit.NANOSECONDS.sleep(wait);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw SpannerExceptionFactory.propagateInterrupt(e);
+    }
+  }
+
+  public long getWaitNanos() {
+    return waitNanos.get();
+  }
+
+  // NOTE: Returns the ResultSet as is if the limiter is empty.
+  public static ResultSet limit(Optional<RateLimiter> rateLimiter, ResultSet rs) {
+    return rateLimiter.isPresent() ? rateLimiter.get().new LimitedResultSet(rs) : rs;
+  }
+
+  // NOTE: Acquires the permits of the rows that the consumer reads in chunks, whose bytes are
+  //       estimated from the sampled rows.
+  private class LimitedResultSet extends ForwardingResultSet {
+    private long rows = 0;
+    private long sampledRows = 0;
+    private long sampledBytes = 0;
+    private long acquiredRows = 0;
+
+    LimitedResultSet(ResultSet delegate) {
+      super(delegate);
+    }
+
+    @Override
+    public boolean next() {
+      if (!super.next()) {
+        acquirePending();
+        return false;
+      }
+      if (rows % CHUNK_ROWS == 0) {
+        sampledRows++;
+        sampledBytes += ReadMetrics.estimateBytes(this);
+      }
+      rows++;
+      if (rows % CHUNK_ROWS == 0) {
+        acquirePending();
+      }
+      return true;
+    }
+
+    private void acquirePending() {
+      if (rows == acquiredRows) {
+        return;
+      }
+      long pendingRows = rows - acquiredRows;
+      long pendingBytes = sampledRows > 0 ? sampledBytes * pendingRows / sampledRows : 0;
+      acquiredRows = rows;
+      acquire(pendingRows, pendingBytes);
+    }
+  }
+}
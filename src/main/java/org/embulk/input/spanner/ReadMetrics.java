@@ -0,0 +1,402 @@
+package org.embulk.input.spanner;
+
+import com.google.cloud.spanner.ForwardingResultSet;
+import com.google.cloud.spanner.ResultSet;
+import com.google.cloud.spanner.StructReader;
+import com.google.cloud.spanner.Type;
+import com.google.protobuf.Value;
+import com.google.spanner.v1.ResultSetStats;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// NOTE: Collects the metrics of the partitions that a task reads, so that a slow task can be
+//       attributed to the scan in Spanner, a skewed partition, or the consumer of the rows.
+public class ReadMetrics {
+  private static final Logger logger = LoggerFactory.getLogger(ReadMetrics.class);
+
+  // NOTE: Estimating the size of every row costs as much as reading it, so the size is sampled.
+  static final long BYTES_SAMPLING_INTERVAL = 100;
+
+  public static class PartitionMetrics {
+    private final int index;
+    private final long rows;
+    private final long bytes;
+    private final long timeToFirstRowNanos;
+    private final long spannerNanos;
+    private final long streamNanos;
+    private final Map<String, String> queryStats;
+
+    PartitionMetrics(
+        int index,
+        long rows,
+        long bytes,
+        long timeToFirstRowNanos,
+        long spannerNanos,
+        long streamNanos,
+        Map<String, String> queryStats) {
+      this.index = index;
+      this.rows = rows;
+      this.bytes = bytes;
+      this.timeToFirstRowNanos = timeToFirstRowNanos;
+      this.spannerNanos = spannerNanos;
+      this.streamNanos = streamNanos;
+      this.queryStats = queryStats;
+    }
+
+    public int getIndex() {
+      return index;
+    }
+
+    public long getRows() {
+      return rows;
+    }
+
+    // NOTE: Estimated from the sampled rows.
+    public long getBytes() {
+      return bytes;
+    }
+
+    public long getTimeToFirstRowNanos() {
+      return timeToFirstRowNanos;
+    }
+
+    // NOTE: The time spent in waiting for the rows from Spanner.
+    public long getSpannerNanos() {
+      return spannerNanos;
+    }
+
+    // NOTE: The time from the execution to the end of the stream, including the time that the
+    //       consumer spends for the rows.
+    public long getStreamNanos() {
+      return streamNanos;
+    }
+
+    // NOTE: Spanner returns the query statistics only in the PROFILE mode, so it is usually empty.
+    public Map<String, String> getQueryStats() {
+      return queryStats;
+    }
+  }
+
+  public static class Summary {
+    private final int partitions;
+    private final long rows;
+    private final long bytes;
+    private final long p50StreamMillis;
+    private final long p95StreamMillis;
+    private final long maxStreamMillis;
+    private final long maxTimeToFirstRowMillis;
+    private final long spannerMillis;
+    private final long streamMillis;
+    private final double skewRatio;
+    private final long retries;
+    private final long backoffMillis;
+    private final long throttleMillis;
+
+    Summary(List<PartitionMetrics> metrics, long retries, long backoffNanos, long throttleNanos) {
+      List<Long> streamNanos = new ArrayList<>(metrics.size());
+      long rows = 0;
+      long bytes = 0;
+      long maxTimeToFirstRowNanos = 0;
+      long spannerNanos = 0;
+      long totalStreamNanos = 0;
+      for (PartitionMetrics m : metrics) {
+        streamNanos.add(m.getStreamNanos());
+        rows += m.getRows();
+        bytes += m.getBytes();
+        maxTimeToFirstRowNanos = Math.max(maxTimeToFirstRowNanos, m.getTimeToFirstRowNanos());
+        spannerNanos += m.getSpannerNanos();
+        totalStreamNanos += m.getStreamNanos();
+      }
+      Collections.sort(streamNanos);
+      long p50 = percentile(streamNanos, 50);
+
+      this.partitions = metrics.size();
+      this.rows = rows;
+      this.bytes = bytes;
+      this.p50StreamMillis = toMillis(p50);
+      this.p95StreamMillis = toMillis(percentile(streamNanos, 95));
+      this.maxStreamMillis = toMillis(percentile(streamNanos, 100));
+      this.maxTimeToFirstRowMillis = toMillis(maxTimeToFirstRowNanos);
+      this.spannerMillis = toMillis(spannerNanos);
+      this.streamMillis = toMillis(totalStreamNanos);
+      // NOTE: How much longer the slowest partition is than the median one.
+      this.skewRatio = p50 > 0 ? (double) percentile(streamNanos, 100) / p50 : 1.0;
+      this.retries = retries;
+      this.backoffMillis = toMillis(backoffNanos);
+      this.throttleMillis = toMillis(throttleNanos);
+    }
+
+    // NOTE: The nearest-rank percentile of the sorted values.
+    private static long percentile(List<Long> sorted, int p) {
+      if (sorted.isEmpty()) {
+        return 0L;
+      }
+      int rank = (int) Math.ceil(p / 100.0 * sorted.size());
+      return sorted.get(Math.max(0, rank - 1));
+    }
+
+    private static long toMillis(long nanos) {
+      return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    public int getPartitions() {
+      return partitions;
+    }
+
+    public long getRows() {
+      return rows;
+    }
+
+    public double getSkewRatio() {
+      return skewRatio;
+    }
+
+    public long getRetries() {
+      return retries;
+    }
+
+    public Map<String, Object> toMap() {
+      Map<String, Object> map = new LinkedHashMap<>();
+      map.put("partitions", partitions);
+      map.put("rows", rows);
+      map.put("bytes", bytes);
+      map.put("p50_partition_millis", p50StreamMillis);
+      map.put("p95_partition_millis", p95StreamMillis);
+      map.put("max_partition_millis", maxStreamMillis);
+      map.put("max_time_to_first_row_millis", maxTimeToFirstRowMillis);
+      map.put("spanner_millis", spannerMillis);
+      map.put("stream_millis", streamMillis);
+      map.put("skew_ratio", Math.round(skewRatio * 100) / 100.0);
+      map.put("retries", retries);
+      map.put("backoff_millis", backoffMillis);
+      map.put("throttle_millis", throttleMillis);
+      return map;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder();
+      for (Map.Entry<String, Object> e : toMap().entrySet()) {
+        if (sb.length() > 0) {
+          sb.append(", ");
+        }
+        sb.append(e.getKey()).append("=").append(e.getValue());
+      }
+      return sb.toString();
+    }
+  }
+
+  private final List<PartitionMetrics> partitions =
+      Collections.synchronizedList(new ArrayList<>());
+  private final AtomicLong retries = new AtomicLong(0);
+  private final AtomicLong backoffNanos = new AtomicLong(0);
+
+  // NOTE: Wraps the ResultSet of the partition that was executed at startNanos, and records the
+  //       metrics of the partition when the ResultSet is exhausted or closed.
+  public ResultSet measure(int index, long startNanos, ResultSet rs) {
+    return new MeasuredResultSet(index, startNanos, rs);
+  }
+
+  // NOTE: Closes the ResultSet of a failed attempt of the partition without recording it. The
+  //       ResultSet of the retry is measured from the start of the first attempt instead.
+  public void discard(ResultSet rs) {
+    if (rs instanceof MeasuredResultSet) {
+      ((MeasuredResultSet) rs).recorded = true;
+    }
+    rs.close();
+  }
+
+  public void recordRetry(long backoffNanos) {
+    this.retries.incrementAndGet();
+    this.backoffNanos.addAndGet(backoffNanos);
+  }
+
+  public List<PartitionMetrics> getPartitions() {
+    synchronized (partitions) {
+      return new ArrayList<>(partitions);
+    }
+  }
+
+  public Summary summarize() {
+    return summarize(0);
+  }
+
+  // NOTE: throttleNanos is the time spent in waiting for the rate limiter of the read.
+  public Summary summarize(long throttleNanos) {
+    return new Summary(getPartitions(), retries.get(), backoffNanos.get(), throttleNanos);
+  }
+
+  private void record(PartitionMetrics m) {
+    partitions.add(m);
+    logger.info(
+        "Read the partition that index of {}: rows={}, bytes={}, time_to_first_row_millis={},"
+            + " spanner_millis={}, stream_millis={}{}",
+        m.getIndex(),
+        m.getRows(),
+        m.getBytes(),
+        TimeUnit.NANOSECONDS.toMillis(m.getTimeToFirstRowNanos()),
+        TimeUnit.NANOSECONDS.toMillis(m.getSpannerNanos()),
+        TimeUnit.NANOSECONDS.toMillis(m.getStreamNanos()),
+        m.getQueryStats().isEmpty() ? "" : ", query_stats=" + m.getQueryStats());
+  }
+
+  // NOTE: A rough size of the values in the row, which is close to the size on the wire.
+  static long estimateBytes(StructReader row) {
+    long bytes = 0;
+    List<Type.StructField> fields = row.getType().getStructFields();
+    for (int i = 0; i < fields.size(); i++) {
+      if (row.isNull(i)) {
+        continue;
+      }
+      Type type = fields.get(i).getType();
+      switch (type.getCode()) {
+        case BOOL:
+          bytes += 1;
+          break;
+        case INT64:
+        case FLOAT64:
+          bytes += 8;
+          break;
+        case DATE:
+          bytes += 4;
+          break;
+        case TIMESTAMP:
+          bytes += 12;
+          break;
+        case NUMERIC:
+          bytes += 16;
+          break;
+        case STRING:
+          bytes += row.getString(i).length();
+          break;
+        case JSON:
+          bytes += row.getJson(i).length();
+          break;
+        case BYTES:
+          bytes += row.getBytes(i).length();
+          break;
+        case ARRAY:
+          bytes += estimateArrayBytes(row, i, type.getArrayElementType());
+          break;
+        default:
+          bytes += 8;
+          break;
+      }
+    }
+    return bytes;
+  }
+
+  private static long estimateArrayBytes(StructReader row, int i, Type elementType) {
+    switch (elementType.getCode()) {
+      case BOOL:
+        return row.getBooleanList(i).size();
+      case INT64:
+        return 8L * row.getLongList(i).size();
+      case FLOAT64:
+        return 8L * row.getDoubleList(i).size();
+      case DATE:
+        return 4L * row.getDateList(i).size();
+      case TIMESTAMP:
+        return 12L * row.getTimestampList(i).size();
+      case NUMERIC:
+        return 16L * row.getBigDecimalList(i).size();
+      case STRING:
+        return row.getStringList(i).stream().mapToLong(s -> s == null ? 0 : s.length()).sum();
+      case JSON:
+        return row.getJsonList(i).stream().mapToLong(s -> s == null ? 0 : s.length()).sum();
+      case BYTES:
+        return row.getBytesList(i).stream().mapToLong(b -> b == null ? 0 : b.length()).sum();
+      default:
+        return 8L * row.getStructList(i).size();
+    }
+  }
+
+  private static Map<String, String> queryStatsOf(ResultSetStats stats) {
+    if (stats == null || !stats.hasQueryStats()) {
+      return Collections.emptyMap();
+    }
+    Map<String, String> map = new LinkedHashMap<>();
+    for (Map.Entry<String, Value> e : stats.getQueryStats().getFieldsMap().entrySet()) {
+      Value v = e.getValue();
+      map.put(e.getKey(), v.hasStringValue() ? v.getStringValue() : v.toString().trim());
+    }
+    return map;
+  }
+
+  private class MeasuredResultSet extends ForwardingResultSet {
+    private final int index;
+    private final long startNanos;
+    private long rows = 0;
+    private long sampledRows = 0;
+    private long sampledBytes = 0;
+    private long timeToFirstRowNanos = -1;
+    private long spannerNanos = 0;
+    private boolean recorded = false;
+
+    MeasuredResultSet(int index, long startNanos, ResultSet delegate) {
+      super(delegate);
+      this.index = index;
+      this.startNanos = startNanos;
+    }
+
+    @Override
+    public boolean next() {
+      long before = System.nanoTime();
+      boolean hasNext = super.next();
+      long after = System.nanoTime();
+      spannerNanos += after - before;
+      if (!hasNext) {
+        finish(after);
+        return false;
+      }
+      if (timeToFirstRowNanos < 0) {
+        timeToFirstRowNanos = after - startNanos;
+      }
+      if (rows % BYTES_SAMPLING_INTERVAL == 0) {
+        sampledRows++;
+        sampledBytes += estimateBytes(this);
+      }
+      rows++;
+      return true;
+    }
+
+    @Override
+    public void close() {
+      finish(System.nanoTime());
+      super.close();
+    }
+
+    private void finish(long endNanos) {
+      if (recorded) {
+        return;
+      }
+      recorded = true;
+      long bytes = sampledRows > 0 ? sampledBytes * rows / sampledRows : 0;
+      record(
+          new PartitionMetrics(
+              index,
+              rows,
+              bytes,
+              Math.max(0, timeToFirstRowNanos),
+              spannerNanos,
+              endNanos - startNanos,
+              queryStatsOf(stats())));
+    }
+
+    // NOTE: The stats are available only after the stream is exhausted.
+    private ResultSetStats stats() {
+      try {
+        return getStats();
+      } catch (RuntimeException e) {
+        return null;
+      }
+    }
+  }
+}
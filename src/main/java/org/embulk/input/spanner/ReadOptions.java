@@ -0,0 +1,341 @@
+package org.embulk.input.spanner;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.spanner.Options;
+import com.google.cloud.spanner.Options.RpcPriority;
+import com.google.cloud.spanner.PartitionOptions;
+import com.google.cloud.spanner.TimestampBound;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.embulk.config.ConfigException;
+import org.embulk.input.spanner.SpannerInputPlugin.PluginTask;
+
+public class ReadOptions {
+  public static class Builder {
+    private int partitionConcurrency = 1;
+    private Optional<Long> maxPartitions = Optional.empty();
+    private Optional<Long> partitionSizeBytes = Optional.empty();
+    private TimestampBound timestampBound = TimestampBound.strong();
+    private Optional<Integer> keyRangeShards = Optional.empty();
+    private Optional<String> keyRangeTable = Optional.empty();
+    private Optional<String> keyRangeColumn = Optional.empty();
+    private int partitionMaxRetries = 3;
+    private long partitionRetryBackoffMillis = 1000L;
+    private Optional<RpcPriority> rpcPriority = Optional.empty();
+    private Optional<String> requestTag = Optional.empty();
+    private Optional<Long> maxRowsPerSecond = Optional.empty();
+    private Optional<Long> maxBytesPerSecond = Optional.empty();
+
+    Builder() {}
+
+    public Builder partitionConcurrency(int partitionConcurrency) {
+      this.partitionConcurrency = partitionConcurrency;
+      return this;
+    }
+
+    public Builder maxPartitions(Optional<Long> maxPartitions) {
+      this.maxPartitions = maxPartitions;
+      return this;
+    }
+
+    public Builder partitionSizeBytes(Optional<Long> partitionSizeBytes) {
+      this.partitionSizeBytes = partitionSizeBytes;
+      return this;
+    }
+
+    public Builder timestampBound(TimestampBound timestampBound) {
+      this.timestampBound = timestampBound;
+      return this;
+    }
+
+    public Builder keyRangeShards(Optional<Integer> keyRangeShards) {
+      this.keyRangeShards = keyRangeShards;
+      return this;
+    }
+
+    public Builder keyRangeTable(Optional<String> keyRangeTable) {
+      this.keyRangeTable = keyRangeTable;
+      return this;
+    }
+
+    public Builder keyRangeColumn(Optional<String> keyRangeColumn) {
+      this.keyRangeColumn = keyRangeColumn;
+      return this;
+    }
+
+    public Builder partitionMaxRetries(int partitionMaxRetries) {
+      this.partitionMaxRetries = partitionMaxRetries;
+      return this;
+    }
+
+    public Builder partitionRetryBackoffMillis(long partitionRetryBackoffMillis) {
+      this.partitionRetryBackoffMillis = partitionRetryBackoffMillis;
+      return this;
+    }
+
+    public Builder rpcPriority(Optional<RpcPriority> rpcPriority) {
+      this.rpcPriority = rpcPriority;
+      return this;
+    }
+
+    public Builder requestTag(Optional<String> requestTag) {
+      this.requestTag = requestTag;
+      return this;
+    }
+
+    public Builder maxRowsPerSecond(Optional<Long> maxRowsPerSecond) {
+      this.maxRowsPerSecond = maxRowsPerSecond;
+      return this;
+    }
+
+    public Builder maxBytesPerSecond(Optional<Long> maxBytesPerSecond) {
+      this.maxBytesPerSecond = maxBytesPerSecond;
+      return this;
+    }
+
+    public ReadOptions build() {
+      if (partitionConcurrency < 1) {
+        throw new ConfigException("'partition_concurrency' must be greater than 0.");
+      }
+      if (maxPartitions.isPresent() && maxPartitions.get() < 1) {
+        throw new ConfigException("'max_partitions' must be greater than 0.");
+      }
+      if (partitionSizeBytes.isPresent() && partitionSizeBytes.get() < 1) {
+        throw new ConfigException("'partition_size_bytes' must be greater than 0.");
+      }
+      if (keyRangeShards.isPresent() && keyRangeShards.get() < 1) {
+        throw new ConfigException("'key_range_shards' must be greater than 0.");
+      }
+      if (keyRangeShards.isPresent() && !keyRangeTable.isPresent()) {
+        throw new ConfigException("'key_range_shards' requires 'key_range_table' or 'table'.");
+      }
+      if (partitionMaxRetries < 0) {
+        throw new ConfigException("'partition_max_retries' must not be negative.");
+      }
+      if (partitionRetryBackoffMillis < 1) {
+        throw new ConfigException("'partition_retry_backoff_millis' must be greater than 0.");
+      }
+      if (requestTag.isPresent() && requestTag.get().contains("'")) {
+        throw new ConfigException("'request_tag' must not contain single quotes.");
+      }
+      if (maxRowsPerSecond.isPresent() && maxRowsPerSecond.get() < 1) {
+        throw new ConfigException("'max_rows_per_second' must be greater than 0.");
+      }
+      if (maxBytesPerSecond.isPresent() && maxBytesPerSecond.get() < 1) {
+        throw new ConfigException("'max_bytes_per_second' must be greater than 0.");
+      }
+      return new ReadOptions(this);
+    }
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public static ReadOptions defaults() {
+    return builder().build();
+  }
+
+  public static ReadOptions fromTask(PluginTask task) {
+    return builder()
+        .partitionConcurrency(task.getPartitionConcurrency())
+        .maxPartitions(task.getMaxPartitions())
+        .partitionSizeBytes(task.getPartitionSizeBytes())
+        .timestampBound(timestampBoundOf(task))
+        .keyRangeShards(task.getKeyRangeShards())
+        .keyRangeTable(keyRangeTableOf(task))
+        .keyRangeColumn(task.getKeyRangeColumn())
+        .partitionMaxRetries(task.getPartitionMaxRetries())
+        .partitionRetryBackoffMillis(task.getPartitionRetryBackoffMillis())
+        .rpcPriority(task.getRpcPriority().map(ReadOptions::rpcPriorityOf))
+        .requestTag(task.getRequestTag())
+        .maxRowsPerSecond(task.getMaxRowsPerSecond())
+        .maxBytesPerSecond(task.getMaxBytesPerSecond())
+        .build();
+  }
+
+  private static RpcPriority rpcPriorityOf(String priority) {
+    try {
+      return RpcPriority.valueOf(priority.toUpperCase(Locale.ENGLISH));
+    } catch (IllegalArgumentException e) {
+      throw new ConfigException(
+          "'rpc_priority' must be 'LOW', 'MEDIUM' or 'HIGH': " + priority, e);
+    }
+  }
+
+  private static TimestampBound timestampBoundOf(PluginTask task) {
+    int count =
+        (task.getReadTimestamp().isPresent() ? 1 : 0)
+            + (task.getExactStaleness().isPresent() ? 1 : 0)
+            + (task.getMaxStaleness().isPresent() ? 1 : 0);
+    if (count > 1) {
+      throw new ConfigException(
+          "Only one of 'read_timestamp', 'exact_staleness' and 'max_staleness' can be set.");
+    }
+    if (task.getReadTimestamp().isPresent()) {
+      try {
+        return TimestampBound.ofReadTimestamp(
+            Timestamp.parseTimestamp(task.getReadTimestamp().get()));
+      } catch (IllegalArgumentException e) {
+        throw new ConfigException(
+            "'read_timestamp' must be RFC 3339 format: " + task.getReadTimestamp().get(), e);
+      }
+    }
+    if (task.getExactStaleness().isPresent()) {
+      if (task.getExactStaleness().get() < 0) {
+        throw new ConfigException("'exact_staleness' must not be negative.");
+      }
+      return TimestampBound.ofExactStaleness(task.getExactStaleness().get(), TimeUnit.SECONDS);
+    }
+    if (task.getMaxStaleness().isPresent()) {
+      if (task.getMaxStaleness().get() < 0) {
+        throw new ConfigException("'max_staleness' must not be negative.");
+      }
+      return TimestampBound.ofMaxStaleness(task.getMaxStaleness().get(), TimeUnit.SECONDS);
+    }
+    return TimestampBound.strong();
+  }
+
+  private static Optional<String> keyRangeTableOf(PluginTask task) {
+    if (task.getKeyRangeTable().isPresent()) {
+      return task.getKeyRangeTable();
+    }
+    return task.getTable();
+  }
+
+  private final int partitionConcurrency;
+  private final Optional<Long> maxPartitions;
+  private final Optional<Long> partitionSizeBytes;
+  private final TimestampBound timestampBound;
+  private final Optional<Integer> keyRangeShards;
+  private final Optional<String> keyRangeTable;
+  private final Optional<String> keyRangeColumn;
+  private final int partitionMaxRetries;
+  private final long partitionRetryBackoffMillis;
+  private final Optional<RpcPriority> rpcPriority;
+  private final Optional<String> requestTag;
+  private final Optional<Long> maxRowsPerSecond;
+  private final Optional<Long> maxBytesPerSecond;
+
+  ReadOptions(Builder builder) {
+    this.partitionConcurrency = builder.partitionConcurrency;
+    this.maxPartitions = builder.maxPartitions;
+    this.partitionSizeBytes = builder.partitionSizeBytes;
+    this.timestampBound = builder.timestampBound;
+    this.keyRangeShards = builder.keyRangeShards;
+    this.keyRangeTable = builder.keyRangeTable;
+    this.keyRangeColumn = builder.keyRangeColumn;
+    this.partitionMaxRetries = builder.partitionMaxRetries;
+    this.partitionRetryBackoffMillis = builder.partitionRetryBackoffMillis;
+    this.rpcPriority = builder.rpcPriority;
+    this.requestTag = builder.requestTag;
+    this.maxRowsPerSecond = builder.maxRowsPerSecond;
+    this.maxBytesPerSecond = builder.maxBytesPerSecond;
+  }
+
+  public int getPartitionConcurrency() {
+    return partitionConcurrency;
+  }
+
+  public Optional<Long> getMaxPartitions() {
+    return maxPartitions;
+  }
+
+  public Optional<Long> getPartitionSizeBytes() {
+    return partitionSizeBytes;
+  }
+
+  public TimestampBound getTimestampBound() {
+    return timestampBound;
+  }
+
+  public Optional<Integer> getKeyRangeShards() {
+    return keyRangeShards;
+  }
+
+  public Optional<String> getKeyRangeTable() {
+    return keyRangeTable;
+  }
+
+  // NOTE: Empty means the first column of the primary key of the table.
+  public Optional<String> getKeyRangeColumn() {
+    return keyRangeColumn;
+  }
+
+  public int getPartitionMaxRetries() {
+    return partitionMaxRetries;
+  }
+
+  public long getPartitionRetryBackoffMillis() {
+    return partitionRetryBackoffMillis;
+  }
+
+  public Optional<RpcPriority> getRpcPriority() {
+    return rpcPriority;
+  }
+
+  public Optional<String> getRequestTag() {
+    return requestTag;
+  }
+
+  public Optional<Long> getMaxRowsPerSecond() {
+    return maxRowsPerSecond;
+  }
+
+  // NOTE: The bytes are estimated from the values of the sampled rows.
+  public Optional<Long> getMaxBytesPerSecond() {
+    return maxBytesPerSecond;
+  }
+
+  // NOTE: The options of the queries and the reads of the rows. A partition keeps the options of
+  //       the partitioned query or read, and its execution sends them.
+  public Options.QueryOption[] toQueryOptions() {
+    return requestOptions().toArray(new Options.QueryOption[0]);
+  }
+
+  public Options.ReadOption[] toReadOptions() {
+    return requestOptions().toArray(new Options.ReadOption[0]);
+  }
+
+  private List<Options.ReadQueryUpdateTransactionOption> requestOptions() {
+    List<Options.ReadQueryUpdateTransactionOption> options = new ArrayList<>(2);
+    rpcPriority.ifPresent(priority -> options.add(Options.priority(priority)));
+    requestTag.ifPresent(tag -> options.add(Options.tag(tag)));
+    return options;
+  }
+
+  // NOTE: The value of the READ_ONLY_STALENESS statement of the JDBC driver.
+  //       ref. https://cloud.google.com/spanner/docs/jdbc-session-mgmt-commands#read_only_staleness
+  public Optional<String> getReadOnlyStaleness() {
+    switch (timestampBound.getMode()) {
+      case READ_TIMESTAMP:
+        return Optional.of("READ_TIMESTAMP " + timestampBound.getReadTimestamp());
+      case EXACT_STALENESS:
+        return Optional.of(
+            "EXACT_STALENESS " + timestampBound.getExactStaleness(TimeUnit.MILLISECONDS) + "ms");
+      case MAX_STALENESS:
+        return Optional.of(
+            "MAX_STALENESS " + timestampBound.getMaxStaleness(TimeUnit.MILLISECONDS) + "ms");
+      default:
+        return Optional.empty();
+    }
+  }
+
+  public String describePartitionOptions() {
+    return String.format(
+        "max_partitions: %s, partition_size_bytes: %s",
+        maxPartitions.map(String::valueOf).orElse("default"),
+        partitionSizeBytes.map(String::valueOf).orElse("default"));
+  }
+
+  // NOTE: These are hints. Spanner may return more or fewer partitions than requested.
+  public PartitionOptions toPartitionOptions() {
+    PartitionOptions.Builder builder = PartitionOptions.newBuilder();
+    maxPartitions.ifPresent(builder::setMaxPartitions);
+    partitionSizeBytes.ifPresent(builder::setPartitionSizeBytes);
+    return builder.build();
+  }
+}
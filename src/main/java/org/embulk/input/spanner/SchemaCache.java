@@ -0,0 +1,171 @@
+package org.embulk.input.spanner;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.cloud.spanner.ReadContext;
+import com.google.cloud.spanner.ResultSet;
+import com.google.cloud.spanner.Statement;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.Optional;
+import org.embulk.input.jdbc.JdbcSchema;
+import org.embulk.input.spanner.SpannerInputPlugin.PluginTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// NOTE: Keeps the schemas of the queries in a local JSON file across runs. A schema is keyed by
+//       the database, the query and the version of the database schema, which is `schema_version`
+//       if set, or the digest of INFORMATION_SCHEMA.COLUMNS that changes when the DDL changes.
+//       The file is a cache, so it is ignored when it cannot be read or written.
+public class SchemaCache {
+  private static final Logger logger = LoggerFactory.getLogger(SchemaCache.class);
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  static final int MAX_ENTRIES = 100;
+
+  static final String COLUMNS_QUERY =
+      "SELECT TABLE_SCHEMA, TABLE_NAME, COLUMN_NAME, SPANNER_TYPE, IS_NULLABLE"
+          + " FROM INFORMATION_SCHEMA.COLUMNS"
+          + " WHERE TABLE_SCHEMA NOT IN ('INFORMATION_SCHEMA', 'SPANNER_SYS')"
+          + " ORDER BY TABLE_SCHEMA, TABLE_NAME, ORDINAL_POSITION";
+
+  public static Optional<SchemaCache> fromTask(PluginTask task) {
+    return task.getSchemaCachePath()
+        .map(
+            path ->
+                new SchemaCache(
+                    Paths.get(path),
+                    String.format(
+                        "projects/%s/instances/%s/databases/%s",
+                        task.getProjectId(), task.getInstanceId(), task.getDatabaseId()),
+                    task.getSchemaVersion()));
+  }
+
+  // NOTE: Each column is a line of the tab-separated values, so the digest changes when a table
+  //       or a column is added, dropped or altered.
+  public static String digestColumns(ReadContext ctx) {
+    MessageDigest digest = newDigest();
+    try (ResultSet rs = ctx.executeQuery(Statement.of(COLUMNS_QUERY))) {
+      while (rs.next()) {
+        for (int i = 0; i < rs.getColumnCount(); i++) {
+          String value = rs.isNull(i) ? "" : rs.getString(i);
+          digest.update(value.getBytes(StandardCharsets.UTF_8));
+          digest.update((byte) (i + 1 < rs.getColumnCount() ? '\t' : '\n'));
+        }
+      }
+    }
+    return toHex(digest.digest());
+  }
+
+  private final Path path;
+  private final String database;
+  private final Optional<String> schemaVersion;
+
+  public SchemaCache(Path path, String database, Optional<String> schemaVersion) {
+    this.path = path;
+    this.database = database;
+    this.schemaVersion = schemaVersion;
+  }
+
+  public Path getPath() {
+    return path;
+  }
+
+  public Optional<String> getSchemaVersion() {
+    return schemaVersion;
+  }
+
+  public Optional<JdbcSchema> get(String query, String version) {
+    JsonNode schema = read().get(keyOf(query, version));
+    if (schema == null) {
+      return Optional.empty();
+    }
+    try {
+      return Optional.of(MAPPER.treeToValue(schema, JdbcSchema.class));
+    } catch (IOException e) {
+      logger.warn("Ignore the schema cached in {} that cannot be read.", path, e);
+      return Optional.empty();
+    }
+  }
+
+  // NOTE: The entry is moved to the end, and the oldest entries are evicted beyond MAX_ENTRIES.
+  public void put(String query, String version, JdbcSchema schema) {
+    ObjectNode entries = read();
+    String key = keyOf(query, version);
+    entries.remove(key);
+    entries.set(key, MAPPER.valueToTree(schema));
+    Iterator<String> keys = entries.fieldNames();
+    int excess = entries.size() - MAX_ENTRIES;
+    while (excess-- > 0 && keys.hasNext()) {
+      keys.next();
+      keys.remove();
+    }
+    try {
+      Path dir = path.toAbsolutePath().getParent();
+      Files.createDirectories(dir);
+      Path tmp = Files.createTempFile(dir, path.getFileName().toString(), ".tmp");
+      try {
+        MAPPER.writeValue(tmp.toFile(), entries);
+        try {
+          Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+          Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+      } finally {
+        Files.deleteIfExists(tmp);
+      }
+    } catch (IOException e) {
+      logger.warn("Failed to write the schema cache to {}.", path, e);
+    }
+  }
+
+  private ObjectNode read() {
+    if (!Files.exists(path)) {
+      return MAPPER.createObjectNode();
+    }
+    try {
+      JsonNode node = MAPPER.readTree(path.toFile());
+      if (node instanceof ObjectNode) {
+        return (ObjectNode) node;
+      }
+      logger.warn("Ignore the schema cache {} that is not a JSON object.", path);
+    } catch (IOException e) {
+      logger.warn("Ignore the schema cache {} that cannot be read.", path, e);
+    }
+    return MAPPER.createObjectNode();
+  }
+
+  private String keyOf(String query, String version) {
+    MessageDigest digest = newDigest();
+    for (String part : new String[] {database, version, query}) {
+      digest.update(part.getBytes(StandardCharsets.UTF_8));
+      digest.update((byte) 0);
+    }
+    return toHex(digest.digest());
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static String toHex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      sb.append(String.format("%02x", b));
+    }
+    return sb.toString();
+  }
+}
@@ -3,21 +3,32 @@ package org.embulk.input.spanner;
 import com.google.auth.oauth2.AccessToken;
 import com.google.auth.oauth2.OAuth2Credentials;
 import com.google.auth.oauth2.ServiceAccountCredentials;
+import com.google.cloud.Timestamp;
 import com.google.cloud.spanner.BatchClient;
 import com.google.cloud.spanner.BatchReadOnlyTransaction;
+import com.google.cloud.spanner.BatchTransactionId;
+import com.google.cloud.spanner.DatabaseClient;
 import com.google.cloud.spanner.DatabaseId;
+import com.google.cloud.spanner.ForwardingResultSet;
 import com.google.cloud.spanner.Partition;
 import com.google.cloud.spanner.PartitionOptions;
+import com.google.cloud.spanner.ReadOnlyTransaction;
 import com.google.cloud.spanner.ResultSet;
+import com.google.cloud.spanner.SessionPoolOptions;
 import com.google.cloud.spanner.Spanner;
+import com.google.cloud.spanner.SpannerException;
 import com.google.cloud.spanner.SpannerOptions;
 import com.google.cloud.spanner.Statement;
 import com.google.cloud.spanner.TimestampBound;
+import com.google.cloud.spanner.Value;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.lang.reflect.Method;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.embulk.config.ConfigException;
@@ -76,24 +87,75 @@ public class SpannerClient implements AutoCloseable {
                     OAuth2Credentials.newBuilder()
                         .setAccessToken(new AccessToken(token, null))
                         .build()));
+    task.getNumChannels().ifPresent(builder::setNumChannels);
+    if (task.getMinSessions().isPresent() || task.getMaxSessions().isPresent()) {
+      SessionPoolOptions.Builder sessionPool = SessionPoolOptions.newBuilder();
+      task.getMinSessions().ifPresent(sessionPool::setMinSessions);
+      task.getMaxSessions().ifPresent(sessionPool::setMaxSessions);
+      builder.setSessionPoolOption(sessionPool.build());
+    }
 
     return new SpannerClient(
         builder.build().getService(),
         task.getProjectId(),
         task.getInstanceId(),
-        task.getDatabaseId());
+        task.getDatabaseId(),
+        ReadOptions.fromTask(task));
+  }
+
+  // NOTE: Shares the Spanner instance of the JDBC connection, so that the schema discovery and the
+  //       reads use the same channels, credentials and session pool. The instance is owned by the
+  //       driver and released when the connection is closed. Returns empty if it is not found.
+  public static Optional<SpannerClient> fromJdbcConnection(Connection con, PluginTask task) {
+    return JdbcDriverHandles.spannerOf(con)
+        .map(
+            spanner ->
+                new SpannerClient(
+                    spanner,
+                    task.getProjectId(),
+                    task.getInstanceId(),
+                    task.getDatabaseId(),
+                    ReadOptions.fromTask(task),
+                    false));
   }
 
   private final Spanner spanner;
   private final String projectId;
   private final String instanceId;
   private final String databaseId;
+  private final ReadOptions readOptions;
+  private final boolean ownsSpanner;
 
   public SpannerClient(Spanner spanner, String projectId, String instanceId, String databaseId) {
+    this(spanner, projectId, instanceId, databaseId, ReadOptions.defaults());
+  }
+
+  public SpannerClient(
+      Spanner spanner,
+      String projectId,
+      String instanceId,
+      String databaseId,
+      ReadOptions readOptions) {
+    this(spanner, projectId, instanceId, databaseId, readOptions, true);
+  }
+
+  private SpannerClient(
+      Spanner spanner,
+      String projectId,
+      String instanceId,
+      String databaseId,
+      ReadOptions readOptions,
+      boolean ownsSpanner) {
     this.spanner = spanner;
     this.projectId = projectId;
     this.instanceId = instanceId;
     this.databaseId = databaseId;
+    this.readOptions = readOptions;
+    this.ownsSpanner = ownsSpanner;
+  }
+
+  public ReadOptions getReadOptions() {
+    return this.readOptions;
   }
 
   public BatchClient newBatchClient() {
@@ -101,21 +163,193 @@ public class SpannerClient implements AutoCloseable {
         DatabaseId.of(this.projectId, this.instanceId, this.databaseId));
   }
 
+  public DatabaseClient newDatabaseClient() {
+    return this.spanner.getDatabaseClient(
+        DatabaseId.of(this.projectId, this.instanceId, this.databaseId));
+  }
+
   public BatchReadOnlyTransaction newBatchReadOnlyTransaction() {
-    return this.newBatchClient().batchReadOnlyTransaction(TimestampBound.strong());
+    TimestampBound bound = this.readOptions.getTimestampBound();
+    // NOTE: Batch read-only transactions do not support bounded staleness, so the read timestamp
+    //       is chosen by a single-use read-only transaction beforehand.
+    if (bound.getMode() == TimestampBound.Mode.MAX_STALENESS) {
+      bound = TimestampBound.ofReadTimestamp(resolveReadTimestamp());
+    }
+    return this.newBatchClient().batchReadOnlyTransaction(bound);
+  }
+
+  // NOTE: Returns the timestamp that Spanner chooses for the configured timestamp bound.
+  public Timestamp resolveReadTimestamp() {
+    TimestampBound bound = this.readOptions.getTimestampBound();
+    if (bound.getMode() == TimestampBound.Mode.READ_TIMESTAMP) {
+      return bound.getReadTimestamp();
+    }
+    try (ReadOnlyTransaction txn = newDatabaseClient().singleUseReadOnlyTransaction(bound);
+        ResultSet rs = txn.executeQuery(Statement.of("SELECT 1"))) {
+      rs.next();
+      return txn.getReadTimestamp();
+    }
+  }
+
+  public BatchReadOnlyTransaction newBatchReadOnlyTransaction(Timestamp readTimestamp) {
+    return this.newBatchClient()
+        .batchReadOnlyTransaction(TimestampBound.ofReadTimestamp(readTimestamp));
+  }
+
+  public BatchReadOnlyTransaction newBatchReadOnlyTransaction(BatchTransactionId txnId) {
+    return this.newBatchClient().batchReadOnlyTransaction(txnId);
+  }
+
+  public List<Partition> partitionQuery(BatchReadOnlyTransaction txn, PreparedStatement stmt) {
+    return txn.partitionQuery(
+        this.readOptions.toPartitionOptions(),
+        toStatement(stmt),
+        this.readOptions.toQueryOptions());
+  }
+
+  public List<Partition> partitionRead(BatchReadOnlyTransaction txn, TableRead tableRead) {
+    PartitionOptions options = this.readOptions.toPartitionOptions();
+    if (tableRead.getIndex().isPresent()) {
+      return txn.partitionReadUsingIndex(
+          options,
+          tableRead.getTable(),
+          tableRead.getIndex().get(),
+          tableRead.getKeySet(),
+          tableRead.getColumns(),
+          this.readOptions.toReadOptions());
+    }
+    return txn.partitionRead(
+        options,
+        tableRead.getTable(),
+        tableRead.getKeySet(),
+        tableRead.getColumns(),
+        this.readOptions.toReadOptions());
   }
 
   public ParallelRead newParallelRead(PreparedStatement stmt) {
     return new ParallelRead(this, stmt);
   }
 
+  public ParallelRead newParallelRead(
+      PreparedStatement stmt, BatchTransactionId txnId, List<Partition> partitions) {
+    return new ParallelRead(this, stmt, txnId, partitions);
+  }
+
+  public ParallelRead newTableRead(TableRead tableRead) {
+    return new ParallelRead(this, tableRead);
+  }
+
+  public ChangeStreamRead newChangeStreamRead(
+      String changeStream, Timestamp start, Timestamp end, long heartbeatMillis) {
+    DatabaseClient client = newDatabaseClient();
+    return new ChangeStreamRead(
+        changeStream,
+        start,
+        end,
+        heartbeatMillis,
+        stmt -> client.singleUse().executeQuery(stmt, this.readOptions.toQueryOptions()),
+        this.readOptions.getPartitionConcurrency(),
+        PartitionRetryPolicy.fromReadOptions(this.readOptions));
+  }
+
+  // NOTE: Returns empty if the table does not exist or has no primary key.
+  public Optional<String> findFirstKeyColumn(String table) {
+    return KeyRangeSharding.findFirstKeyColumn(newDatabaseClient().singleUse(), table);
+  }
+
+  // NOTE: Returns empty if `key_range_shards` is not set or the keys cannot be split. Then the
+  //       caller should read the query by a single stream instead.
+  public Optional<ParallelRead> newKeyRangeRead(PreparedStatement stmt) {
+    if (!this.readOptions.getKeyRangeShards().isPresent()) {
+      return Optional.empty();
+    }
+    int shards = this.readOptions.getKeyRangeShards().get();
+    String table = this.readOptions.getKeyRangeTable().get();
+    BatchReadOnlyTransaction txn = null;
+    try {
+      Optional<String> column = this.readOptions.getKeyRangeColumn();
+      if (!column.isPresent()) {
+        column = findFirstKeyColumn(table);
+      }
+      if (!column.isPresent()) {
+        logger.warn("Do not shard the query because the primary key of '{}' is not found.", table);
+        return Optional.empty();
+      }
+      txn = newBatchReadOnlyTransaction();
+      List<Value> boundaries =
+          KeyRangeSharding.sampleBoundaries(txn, table, column.get(), shards);
+      if (boundaries.isEmpty()) {
+        logger.warn(
+            "Do not shard the query because the keys of '{}' in '{}' cannot be split.",
+            column.get(),
+            table);
+        txn.close();
+        return Optional.empty();
+      }
+      List<Statement> keyRanges =
+          KeyRangeSharding.shard(toStatement(stmt), column.get(), boundaries);
+      logger.info(
+          "Load {} key ranges of '{}' in '{}' sampled by TABLESAMPLE.",
+          keyRanges.size(),
+          column.get(),
+          table);
+      return Optional.of(new ParallelRead(this, stmt, txn, keyRanges));
+    } catch (SpannerException ex) {
+      logger.warn("Do not shard the query because the keys cannot be sampled.", ex);
+      if (txn != null) {
+        txn.close();
+      }
+      return Optional.empty();
+    }
+  }
+
+  private Statement toStatement(PreparedStatement stmt) {
+    return JdbcDriverHandles.toStatement(stmt);
+  }
+
   @Override
   public void close() {
-    if (!this.spanner.isClosed()) {
+    if (this.ownsSpanner && !this.spanner.isClosed()) {
       this.spanner.close();
     }
   }
 
+  // NOTE: A ResultSet of a partition that counts the rows that the consumer has read, so that a
+  //       retry of the partition can skip them. After peek() reads the first row, the next call of
+  //       next() does not advance the delegate.
+  static class PeekedResultSet extends ForwardingResultSet {
+    private boolean peeked = false;
+    private long rows;
+
+    PeekedResultSet(ResultSet delegate, long rows) {
+      super(delegate);
+      this.rows = rows;
+    }
+
+    boolean peek() {
+      peeked = super.next();
+      return peeked;
+    }
+
+    @Override
+    public boolean next() {
+      if (peeked) {
+        peeked = false;
+        rows++;
+        return true;
+      }
+      boolean hasNext = super.next();
+      if (hasNext) {
+        rows++;
+      }
+      return hasNext;
+    }
+
+    long getRows() {
+      return rows;
+    }
+  }
+
   public class ParallelRead implements AutoCloseable {
     private final AtomicBoolean isTxStarted = new AtomicBoolean(false);
 
@@ -123,7 +357,19 @@ public class SpannerClient implements AutoCloseable {
     private final PreparedStatement stmt;
     private final BatchReadOnlyTransaction txn;
     private final List<Partition> partitions;
+    private final List<Statement> keyRanges;
     private final AtomicInteger partitionIdx = new AtomicInteger(0);
+    private final ReadMetrics metrics = new ReadMetrics();
+    private final Optional<RateLimiter> rateLimiter =
+        RateLimiter.fromReadOptions(SpannerClient.this.readOptions);
+    private PartitionPrefetcher prefetcher = null;
+    // NOTE: The state of the partition that is being read when the partitions are read one by one.
+    //       The rows of the measured ResultSet are limited for the consumer.
+    private PeekedResultSet current = null;
+    private ResultSet currentMeasured = null;
+    private int currentIdx = -1;
+    private long currentStartNanos = 0;
+    private int currentRetries = 0;
 
     ParallelRead(SpannerClient client, PreparedStatement stmt) {
       this.client = client;
@@ -131,25 +377,184 @@ public class SpannerClient implements AutoCloseable {
 
       this.txn = this.client.newBatchReadOnlyTransaction();
       isTxStarted.set(true);
-      this.partitions =
-          this.txn.partitionQuery(PartitionOptions.getDefaultInstance(), toStatement(this.stmt));
+      try {
+        this.partitions = this.client.partitionQuery(this.txn, this.stmt);
+      } catch (RuntimeException ex) {
+        this.txn.close();
+        throw ex;
+      }
+      this.keyRanges = null;
+
+      logger.info(
+          "Load {} partitions. ({})",
+          this.partitions.size(),
+          this.client.readOptions.describePartitionOptions());
+    }
+
+    // NOTE: The JDBC statement is null because the rows are read by the Read API.
+    ParallelRead(SpannerClient client, TableRead tableRead) {
+      this.client = client;
+      this.stmt = null;
+
+      this.txn = this.client.newBatchReadOnlyTransaction();
+      isTxStarted.set(true);
+      try {
+        this.partitions = this.client.partitionRead(this.txn, tableRead);
+      } catch (RuntimeException ex) {
+        this.txn.close();
+        throw ex;
+      }
+      this.keyRanges = null;
+
+      logger.info(
+          "Load {} partitions of the table read. ({}, {})",
+          this.partitions.size(),
+          tableRead,
+          this.client.readOptions.describePartitionOptions());
+    }
+
+    ParallelRead(
+        SpannerClient client,
+        PreparedStatement stmt,
+        BatchTransactionId txnId,
+        List<Partition> partitions) {
+      this.client = client;
+      this.stmt = stmt;
+
+      this.txn = this.client.newBatchReadOnlyTransaction(txnId);
+      isTxStarted.set(true);
+      this.partitions = partitions;
+      this.keyRanges = null;
+
+      logger.info("Load {} partitions assigned to this task.", this.partitions.size());
+    }
+
+    // NOTE: Reads the key ranges of the query as if they are the partitions of the query.
+    ParallelRead(
+        SpannerClient client,
+        PreparedStatement stmt,
+        BatchReadOnlyTransaction txn,
+        List<Statement> keyRanges) {
+      this.client = client;
+      this.stmt = stmt;
+
+      this.txn = txn;
+      isTxStarted.set(true);
+      this.partitions = Collections.emptyList();
+      this.keyRanges = keyRanges;
+    }
+
+    private int size() {
+      return this.keyRanges != null ? this.keyRanges.size() : this.partitions.size();
+    }
 
-      logger.info("Load {} partitions.", this.partitions.size());
+    private ResultSet execute(int index) {
+      if (this.keyRanges != null) {
+        return this.txn.executeQuery(
+            this.keyRanges.get(index), this.client.readOptions.toQueryOptions());
+      }
+      return this.txn.execute(this.partitions.get(index));
     }
 
     public ResultSet fetch() {
-      int currentPartitionIdx = this.partitionIdx.getAndIncrement();
-      if (currentPartitionIdx >= this.partitions.size()) {
-        return null;
+      if (this.client.readOptions.getPartitionConcurrency() > 1) {
+        if (this.prefetcher == null) {
+          this.prefetcher =
+              new PartitionPrefetcher(
+                  size(),
+                  this::execute,
+                  this.client.readOptions.getPartitionConcurrency(),
+                  this.metrics,
+                  PartitionRetryPolicy.fromReadOptions(this.client.readOptions),
+                  this.rateLimiter);
+        }
+        return this.prefetcher.fetch();
       }
-      logger.info("Load the partition that index of {}", currentPartitionIdx);
-      ResultSet rs = this.txn.execute(this.partitions.get(currentPartitionIdx));
-      // NOTE: to avoid empty resultsets, we need to check the partition is empty or not.
-      if (rs.next()) {
-        return this.txn.execute(this.partitions.get(currentPartitionIdx));
-      } else {
-        return fetch();
+      while (true) {
+        int currentPartitionIdx = this.partitionIdx.getAndIncrement();
+        if (currentPartitionIdx >= size()) {
+          this.current = null;
+          return null;
+        }
+        logger.info("Load the partition that index of {}", currentPartitionIdx);
+        this.currentIdx = currentPartitionIdx;
+        this.currentStartNanos = System.nanoTime();
+        this.currentRetries = 0;
+        this.currentMeasured =
+            this.metrics.measure(
+                currentPartitionIdx, this.currentStartNanos, execute(currentPartitionIdx));
+        this.current =
+            new PeekedResultSet(RateLimiter.limit(this.rateLimiter, this.currentMeasured), 0);
+        // NOTE: to avoid empty resultsets, we need to check the partition is empty or not.
+        //       The first row is already read, so it is replayed by PeekedResultSet.
+        while (true) {
+          try {
+            if (this.current.peek()) {
+              return this.current;
+            }
+            break;
+          } catch (SpannerException ex) {
+            retry(ex);
+          }
+        }
+        this.current.close();
+      }
+    }
+
+    // NOTE: Executes the partition that failed with the error again, and returns the ResultSet
+    //       that replaces the failed one, positioned after the rows that the consumer has read.
+    //       Throws the error if it must not be retried, or if the partitions are prefetched, in
+    //       which case the prefetcher has already retried them.
+    public ResultSet retry(SpannerException error) {
+      if (this.current == null) {
+        throw error;
       }
+      PartitionRetryPolicy policy = PartitionRetryPolicy.fromReadOptions(this.client.readOptions);
+      long readRows = this.current.getRows();
+      this.metrics.discard(this.currentMeasured);
+      SpannerException lastError = error;
+      while (true) {
+        long backoff = policy.backoff(lastError, this.currentRetries);
+        this.currentRetries++;
+        this.metrics.recordRetry(TimeUnit.MILLISECONDS.toNanos(backoff));
+        logger.warn(
+            "Retry the partition that index of {} after {} ms, skipping {} rows that were read."
+                + " ({}/{})",
+            this.currentIdx,
+            backoff,
+            readRows,
+            this.currentRetries,
+            policy.getMaxRetries(),
+            lastError);
+        ResultSet rs =
+            this.metrics.measure(this.currentIdx, this.currentStartNanos, execute(this.currentIdx));
+        try {
+          PartitionRetryPolicy.skipReadRows(rs, readRows, this.currentIdx);
+          this.currentMeasured = rs;
+          this.current = new PeekedResultSet(RateLimiter.limit(this.rateLimiter, rs), readRows);
+          return this.current;
+        } catch (SpannerException ex) {
+          this.metrics.discard(rs);
+          lastError = ex;
+        }
+      }
+    }
+
+    public Timestamp getReadTimestamp() {
+      return this.txn.getReadTimestamp();
+    }
+
+    // NOTE: Empty when the key ranges are read.
+    public List<Partition> getPartitions() {
+      return this.partitions;
+    }
+
+    public ReadMetrics getMetrics() {
+      return this.metrics;
+    }
+
+    public ReadMetrics.Summary summarizeMetrics() {
+      return this.metrics.summarize(this.rateLimiter.map(RateLimiter::getWaitNanos).orElse(0L));
     }
 
     public java.sql.ResultSet fetchAsJdbcResultSet() {
@@ -160,32 +565,20 @@ public class SpannerClient implements AutoCloseable {
       return toJdbcResultSet(rs);
     }
 
-    @Override
-    public void close() {
-      this.txn.close();
+    public java.sql.ResultSet retryAsJdbcResultSet(SpannerException error) {
+      return toJdbcResultSet(retry(error));
     }
 
-    private Statement toStatement(PreparedStatement stmt) {
-      try {
-        // https://github.com/googleapis/java-spanner-jdbc/blob/f9daa19/src/main/java/com/google/cloud/spanner/jdbc/JdbcPreparedStatement.java#L56-L64
-        Method m = stmt.getClass().getDeclaredMethod("createStatement");
-        m.setAccessible(true);
-        return (Statement) m.invoke(stmt);
-      } catch (Exception e) {
-        throw new RuntimeException(e);
+    @Override
+    public void close() {
+      if (this.prefetcher != null) {
+        this.prefetcher.close();
       }
+      this.txn.close();
     }
 
     private java.sql.ResultSet toJdbcResultSet(ResultSet rs) {
-      try {
-        // https://github.com/googleapis/java-spanner-jdbc/blob/f9daa19/src/main/java/com/google/cloud/spanner/jdbc/JdbcResultSet.java#L57-L61
-        Class<?> c = Class.forName("com.google.cloud.spanner.jdbc.JdbcResultSet");
-        Method m = c.getDeclaredMethod("of", java.sql.Statement.class, ResultSet.class);
-        m.setAccessible(true);
-        return (java.sql.ResultSet) m.invoke(null, this.stmt, rs);
-      } catch (Exception e) {
-        throw new RuntimeException(e);
-      }
+      return JdbcDriverHandles.toJdbcResultSet(this.stmt, rs);
     }
   }
 }
@@ -1,19 +1,55 @@
 package org.embulk.input.spanner;
 
+import com.google.cloud.Timestamp;
+import com.google.cloud.spanner.BatchReadOnlyTransaction;
+import com.google.cloud.spanner.BatchTransactionId;
+import com.google.cloud.spanner.Partition;
+import com.google.cloud.spanner.SpannerException;
+import com.google.cloud.spanner.TimestampBound;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import org.embulk.config.ConfigDiff;
+import org.embulk.config.ConfigException;
+import org.embulk.config.ConfigSource;
+import org.embulk.config.TaskReport;
+import org.embulk.config.TaskSource;
 import org.embulk.input.jdbc.AbstractJdbcInputPlugin;
+import org.embulk.input.jdbc.JdbcColumn;
+import org.embulk.input.jdbc.JdbcColumnOption;
 import org.embulk.input.jdbc.JdbcInputConnection;
+import org.embulk.input.jdbc.JdbcInputConnection.BatchSelect;
+import org.embulk.input.jdbc.JdbcSchema;
+import org.embulk.input.jdbc.getter.ColumnGetter;
 import org.embulk.input.jdbc.getter.ColumnGetterFactory;
+import org.embulk.input.spanner.getter.BytesEncoder;
+import org.embulk.input.spanner.getter.SpannerColumnGetter;
+import org.embulk.input.spanner.getter.SpannerColumnGetterFactory;
 import org.embulk.input.spanner.jdbc.SpannerJdbcInputConnection;
+import org.embulk.input.spanner.jdbc.SpannerJdbcInputConnection.ParallelReadBatchSelect;
 import org.embulk.input.spanner.jdbc.getter.SpannerJdbcColumnGetterFactory;
+import org.embulk.spi.Column;
+import org.embulk.spi.Exec;
+import org.embulk.spi.InputPlugin;
 import org.embulk.spi.PageBuilder;
+import org.embulk.spi.PageOutput;
+import org.embulk.spi.Schema;
+import org.embulk.spi.type.Type;
 import org.embulk.util.config.Config;
 import org.embulk.util.config.ConfigDefault;
+import org.embulk.util.config.ConfigMapper;
+import org.embulk.util.config.ConfigMapperFactory;
+import org.embulk.util.config.TaskMapper;
 import org.embulk.util.config.units.LocalFile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,6 +57,11 @@ import org.slf4j.LoggerFactory;
 public class SpannerInputPlugin extends AbstractJdbcInputPlugin {
   private static Logger logger = LoggerFactory.getLogger(SpannerInputPlugin.class);
 
+  private static final ConfigMapperFactory CONFIG_MAPPER_FACTORY =
+      ConfigMapperFactory.builder().addDefaultModules().build();
+  private static final ConfigMapper CONFIG_MAPPER = CONFIG_MAPPER_FACTORY.createConfigMapper();
+  private static final TaskMapper TASK_MAPPER = CONFIG_MAPPER_FACTORY.createTaskMapper();
+
   public interface PluginTask extends AbstractJdbcInputPlugin.PluginTask {
     @Config("driver_path")
     @ConfigDefault("null")
@@ -60,9 +101,768 @@ public class SpannerInputPlugin extends AbstractJdbcInputPlugin {
     @ConfigDefault("null")
     public Optional<String> getOptimizerVersion();
 
+    @Config("schema_cache_path")
+    @ConfigDefault("null")
+    public Optional<String> getSchemaCachePath();
+
+    @Config("schema_version")
+    @ConfigDefault("null")
+    public Optional<String> getSchemaVersion();
+
+    @Config("num_channels")
+    @ConfigDefault("null")
+    public Optional<Integer> getNumChannels();
+
+    @Config("min_sessions")
+    @ConfigDefault("null")
+    public Optional<Integer> getMinSessions();
+
+    @Config("max_sessions")
+    @ConfigDefault("null")
+    public Optional<Integer> getMaxSessions();
+
     @Config("use_emulator")
     @ConfigDefault("false")
     public boolean getUseEmulator();
+
+    @Config("distribute_partitions")
+    @ConfigDefault("false")
+    public boolean getDistributePartitions();
+
+    @Config("max_tasks")
+    @ConfigDefault("null")
+    public Optional<Integer> getMaxTasks();
+
+    @Config("partition_concurrency")
+    @ConfigDefault("1")
+    public int getPartitionConcurrency();
+
+    @Config("partition_max_retries")
+    @ConfigDefault("3")
+    public int getPartitionMaxRetries();
+
+    @Config("partition_retry_backoff_millis")
+    @ConfigDefault("1000")
+    public long getPartitionRetryBackoffMillis();
+
+    @Config("rpc_priority")
+    @ConfigDefault("null")
+    public Optional<String> getRpcPriority();
+
+    @Config("request_tag")
+    @ConfigDefault("null")
+    public Optional<String> getRequestTag();
+
+    @Config("max_rows_per_second")
+    @ConfigDefault("null")
+    public Optional<Long> getMaxRowsPerSecond();
+
+    public void setMaxRowsPerSecond(Optional<Long> maxRowsPerSecond);
+
+    @Config("max_bytes_per_second")
+    @ConfigDefault("null")
+    public Optional<Long> getMaxBytesPerSecond();
+
+    public void setMaxBytesPerSecond(Optional<Long> maxBytesPerSecond);
+
+    @Config("max_partitions")
+    @ConfigDefault("null")
+    public Optional<Long> getMaxPartitions();
+
+    @Config("partition_size_bytes")
+    @ConfigDefault("null")
+    public Optional<Long> getPartitionSizeBytes();
+
+    @Config("read_timestamp")
+    @ConfigDefault("null")
+    public Optional<String> getReadTimestamp();
+
+    public void setReadTimestamp(Optional<String> readTimestamp);
+
+    @Config("exact_staleness")
+    @ConfigDefault("null")
+    public Optional<Long> getExactStaleness();
+
+    public void setExactStaleness(Optional<Long> exactStaleness);
+
+    @Config("max_staleness")
+    @ConfigDefault("null")
+    public Optional<Long> getMaxStaleness();
+
+    public void setMaxStaleness(Optional<Long> maxStaleness);
+
+    @Config("key_range_shards")
+    @ConfigDefault("null")
+    public Optional<Integer> getKeyRangeShards();
+
+    public void setKeyRangeShards(Optional<Integer> keyRangeShards);
+
+    @Config("key_range_table")
+    @ConfigDefault("null")
+    public Optional<String> getKeyRangeTable();
+
+    @Config("key_range_column")
+    @ConfigDefault("null")
+    public Optional<String> getKeyRangeColumn();
+
+    public void setKeyRangeColumn(Optional<String> keyRangeColumn);
+
+    @Config("read_mode")
+    @ConfigDefault("\"query\"")
+    public String getReadMode();
+
+    @Config("index")
+    @ConfigDefault("null")
+    public Optional<String> getIndex();
+
+    @Config("key_ranges")
+    @ConfigDefault("[]")
+    public List<TableRead.KeyRangeTask> getKeyRanges();
+
+    @Config("change_stream")
+    @ConfigDefault("null")
+    public Optional<String> getChangeStream();
+
+    @Config("change_stream_start_timestamp")
+    @ConfigDefault("null")
+    public Optional<String> getChangeStreamStartTimestamp();
+
+    @Config("change_stream_end_timestamp")
+    @ConfigDefault("null")
+    public Optional<String> getChangeStreamEndTimestamp();
+
+    public void setChangeStreamEndTimestamp(Optional<String> changeStreamEndTimestamp);
+
+    @Config("change_stream_heartbeat_millis")
+    @ConfigDefault("10000")
+    public long getChangeStreamHeartbeatMillis();
+
+    @Config("last_change_stream_timestamp")
+    @ConfigDefault("null")
+    public Optional<String> getLastChangeStreamTimestamp();
+
+    @Config("commit_timestamp_column")
+    @ConfigDefault("null")
+    public Optional<String> getCommitTimestampColumn();
+
+    @Config("last_commit_timestamp")
+    @ConfigDefault("null")
+    public Optional<String> getLastCommitTimestamp();
+
+    @Config("include_columns")
+    @ConfigDefault("null")
+    public Optional<List<String>> getIncludeColumns();
+
+    @Config("exclude_columns")
+    @ConfigDefault("null")
+    public Optional<List<String>> getExcludeColumns();
+
+    @Config("partitioned_incremental")
+    @ConfigDefault("false")
+    public boolean getPartitionedIncremental();
+
+    @Config("bytes_format")
+    @ConfigDefault("null")
+    public Optional<String> getBytesFormat();
+
+    @Config("json_as_string")
+    @ConfigDefault("false")
+    public boolean getJsonAsString();
+
+    @Config("report_partition_metrics")
+    @ConfigDefault("false")
+    public boolean getReportPartitionMetrics();
+
+    // NOTE: Whether `partitioned_incremental` is applied, which is decided in the transaction.
+    public boolean getIncrementalPartitioned();
+
+    public void setIncrementalPartitioned(boolean incrementalPartitioned);
+
+    public Optional<String> getBatchTransactionId();
+
+    public void setBatchTransactionId(Optional<String> batchTransactionId);
+
+    public List<List<String>> getTaskPartitions();
+
+    public void setTaskPartitions(List<List<String>> taskPartitions);
+  }
+
+  @Override
+  public ConfigDiff transaction(ConfigSource config, InputPlugin.Control control) {
+    PluginTask t = CONFIG_MAPPER.map(config, PluginTask.class);
+    if (t.getMaxTasks().isPresent() && t.getMaxTasks().get() < 1) {
+      throw new ConfigException("'max_tasks' must be greater than 0.");
+    }
+    if (t.getNumChannels().isPresent() && t.getNumChannels().get() < 1) {
+      throw new ConfigException("'num_channels' must be greater than 0.");
+    }
+    if (t.getMinSessions().isPresent() && t.getMinSessions().get() < 0) {
+      throw new ConfigException("'min_sessions' must not be negative.");
+    }
+    if (t.getMaxSessions().isPresent() && t.getMaxSessions().get() < 1) {
+      throw new ConfigException("'max_sessions' must be greater than 0.");
+    }
+    if (t.getMinSessions().isPresent()
+        && t.getMaxSessions().isPresent()
+        && t.getMinSessions().get() > t.getMaxSessions().get()) {
+      throw new ConfigException("'min_sessions' must not be greater than 'max_sessions'.");
+    }
+    t.getBytesFormat().ifPresent(BytesEncoder::formatOf);
+    ReadOptions.fromTask(t); // Validate the options before connecting to Spanner.
+    TableRead.validate(t);
+    ChangeStreamRead.validate(t);
+    CommitTimestampRange.validate(t);
+    ColumnProjection.validate(t);
+    if (ChangeStreamRead.isChangeStream(t)) {
+      return changeStreamTransaction(t, control);
+    }
+    Optional<String> select = ColumnProjection.selectOf(t);
+    if (select.isPresent()) {
+      config = config.deepCopy().set("select", select.get());
+    }
+
+    AtomicReference<Optional<String>> readTimestamp = new AtomicReference<>(Optional.empty());
+    ConfigDiff configDiff =
+        super.transaction(
+            config,
+            (taskSource, schema, taskCount) -> {
+              PluginTask task = TASK_MAPPER.map(taskSource, PluginTask.class);
+              task.setIncrementalPartitioned(
+                  task.getIncremental()
+                      && task.getPartitionedIncremental()
+                      && SpannerJdbcInputConnection.canPartitionIncremental(
+                          task.getQuerySchema(),
+                          task.getIncrementalColumnIndexes(),
+                          task.getUseRawQueryWithIncremental()));
+              List<TaskReport> reports = runTasks(task, schema, taskCount, control);
+              readTimestamp.set(task.getReadTimestamp());
+              return reports;
+            });
+    // NOTE: `last_read_timestamp` is informational and is not read by the next run. It is output
+    //       only when the snapshot is fixed before the tasks start. The next run of
+    //       commit_timestamp_column starts from the snapshot by `last_commit_timestamp`.
+    readTimestamp.get().ifPresent(ts -> configDiff.set("last_read_timestamp", ts));
+    if (t.getCommitTimestampColumn().isPresent()) {
+      readTimestamp.get().ifPresent(ts -> configDiff.set("last_commit_timestamp", ts));
+    }
+    return configDiff;
+  }
+
+  @Override
+  public ConfigDiff resume(
+      TaskSource taskSource, Schema schema, int taskCount, InputPlugin.Control control) {
+    PluginTask task = TASK_MAPPER.map(taskSource, PluginTask.class);
+    if (ChangeStreamRead.isChangeStream(task)) {
+      control.run(taskSource, schema, taskCount);
+      return changeStreamConfigDiff(task);
+    }
+    task.getBatchTransactionId()
+        .ifPresent(
+            id ->
+                logger.info(
+                    "Resume the tasks that read the partitions of the snapshot at {}.",
+                    task.getReadTimestamp().orElse("(unknown)")));
+    ConfigDiff configDiff = super.resume(taskSource, schema, taskCount, control);
+    task.getBatchTransactionId().ifPresent(id -> cleanupBatchTransaction(task, id));
+    task.getReadTimestamp().ifPresent(ts -> configDiff.set("last_read_timestamp", ts));
+    if (task.getCommitTimestampColumn().isPresent()) {
+      task.getReadTimestamp().ifPresent(ts -> configDiff.set("last_commit_timestamp", ts));
+    }
+    return configDiff;
+  }
+
+  // NOTE: The change stream is read by a single task up to the end timestamp that is fixed here,
+  //       so that `embulk run -r` reads the same range, and the next run starts after it.
+  private ConfigDiff changeStreamTransaction(PluginTask task, InputPlugin.Control control) {
+    if (!task.getChangeStreamEndTimestamp().isPresent()) {
+      try (SpannerJdbcInputConnection con = (SpannerJdbcInputConnection) newConnection(task)) {
+        task.setChangeStreamEndTimestamp(Optional.of(con.resolveReadTimestamp().toString()));
+      } catch (SQLException ex) {
+        throw new RuntimeException(ex);
+      }
+    }
+    control.run(task.toTaskSource(), ChangeStreamRead.SCHEMA, 1);
+    return changeStreamConfigDiff(task);
+  }
+
+  private ConfigDiff changeStreamConfigDiff(PluginTask task) {
+    ConfigDiff configDiff = CONFIG_MAPPER_FACTORY.newConfigDiff();
+    configDiff.set("last_change_stream_timestamp", task.getChangeStreamEndTimestamp().get());
+    return configDiff;
+  }
+
+  private TaskReport runChangeStream(PluginTask task, Schema schema, PageOutput output) {
+    PageBuilder pageBuilder = Exec.getPageBuilder(Exec.getBufferAllocator(), schema, output);
+    long totalRows = 0;
+    long reportRows = 500;
+    try (SpannerJdbcInputConnection con = (SpannerJdbcInputConnection) newConnection(task);
+        ChangeStreamRead read =
+            con.newChangeStreamRead(
+                task.getChangeStream().get(),
+                ChangeStreamRead.startTimestampOf(task),
+                Timestamp.parseTimestamp(task.getChangeStreamEndTimestamp().get()),
+                task.getChangeStreamHeartbeatMillis())) {
+      while (true) {
+        com.google.cloud.spanner.Struct record = read.fetch();
+        if (record == null) {
+          break;
+        }
+        totalRows += read.addRecords(record, pageBuilder);
+        if (totalRows >= reportRows) {
+          logger.info(String.format("Fetched %,d rows.", totalRows));
+          reportRows *= 2;
+        }
+      }
+      pageBuilder.finish();
+      runAfterSelect(con, task);
+    } catch (SQLException ex) {
+      throw new RuntimeException(ex);
+    }
+    logger.info("Loaded {} rows.", totalRows);
+    return CONFIG_MAPPER_FACTORY.newTaskReport();
+  }
+
+  // NOTE: Deletes the session of the batch transaction that was kept for resuming the tasks.
+  private void cleanupBatchTransaction(PluginTask task, String batchTransactionId) {
+    try (SpannerJdbcInputConnection con = (SpannerJdbcInputConnection) newConnection(task)) {
+      con.newBatchReadOnlyTransaction(PartitionCodec.decodeTransactionId(batchTransactionId))
+          .cleanup();
+    } catch (SQLException | SpannerException ex) {
+      logger.warn("Failed to clean up the batch transaction.", ex);
+    }
+  }
+
+  private List<TaskReport> runTasks(
+      PluginTask task, Schema schema, int taskCount, InputPlugin.Control control) {
+    task.setBatchTransactionId(Optional.empty());
+    task.setTaskPartitions(Collections.emptyList());
+    boolean distribute = task.getDistributePartitions();
+    if (distribute && task.getIncremental()) {
+      logger.warn(
+          "'distribute_partitions' is ignored because incremental loading keeps the last record"
+              + " in a single task.");
+      distribute = false;
+    }
+    boolean isStrong =
+        ReadOptions.fromTask(task).getTimestampBound().getMode() == TimestampBound.Mode.STRONG;
+    boolean findsKeyRangeColumn =
+        task.getKeyRangeShards().isPresent() && !task.getKeyRangeColumn().isPresent();
+    boolean fixesCommitTimestampRange = task.getCommitTimestampColumn().isPresent();
+    if (!distribute && isStrong && !findsKeyRangeColumn && !fixesCommitTimestampRange) {
+      checkKeyRangeColumn(task);
+      return control.run(task.toTaskSource(), schema, taskCount);
+    }
+
+    try (SpannerJdbcInputConnection con = (SpannerJdbcInputConnection) newConnection(task)) {
+      if (findsKeyRangeColumn) {
+        findKeyRangeColumn(con, task);
+      }
+      checkKeyRangeColumn(task);
+      // NOTE: The read timestamp is resolved once, and the client of the connection still has
+      //       the configured timestamp bound, so the snapshot is read at it explicitly.
+      Optional<Timestamp> readTimestamp = Optional.empty();
+      if (fixesCommitTimestampRange) {
+        readTimestamp = Optional.of(con.resolveReadTimestamp());
+        fixCommitTimestampRange(task, readTimestamp.get());
+      }
+      if (!distribute) {
+        if (!isStrong && !readTimestamp.isPresent()) {
+          fixReadTimestamp(task, con.resolveReadTimestamp());
+        }
+        return control.run(task.toTaskSource(), schema, taskCount);
+      }
+
+      List<ColumnGetter> getters = newColumnGetters(con, task, task.getQuerySchema(), null);
+      BatchReadOnlyTransaction txn =
+          readTimestamp.isPresent()
+              ? con.newBatchReadOnlyTransaction(readTimestamp.get())
+              : con.newBatchReadOnlyTransaction();
+      boolean keepTransaction = false;
+      try {
+        // NOTE: Tasks read the same snapshot even if the query is not root partitionable.
+        if (!readTimestamp.isPresent()) {
+          fixReadTimestamp(task, txn.getReadTimestamp());
+        }
+        Optional<List<Partition>> partitions =
+            TableRead.isTableRead(task)
+                ? Optional.of(con.partitionRead(txn, TableRead.fromTask(task)))
+                : con.partitionQuery(
+                    txn,
+                    task.getBuiltQuery(),
+                    getters,
+                    task.getFetchRows(),
+                    task.getSocketTimeout());
+        if (!partitions.isPresent()) {
+          return control.run(task.toTaskSource(), schema, taskCount);
+        }
+        List<List<String>> taskPartitions = assignPartitions(partitions.get(), task.getMaxTasks());
+        logger.info(
+            "Distribute {} partitions to {} tasks. ({})",
+            partitions.get().size(),
+            taskPartitions.size(),
+            ReadOptions.fromTask(task).describePartitionOptions());
+        task.setBatchTransactionId(
+            Optional.of(PartitionCodec.encode(txn.getBatchTransactionId())));
+        task.setTaskPartitions(taskPartitions);
+        divideRateLimits(task, taskPartitions.size());
+        // NOTE: The transaction must be alive until all the tasks finish reading the partitions.
+        //       When some of the tasks fail, its session is kept so that `embulk run -r` resumes
+        //       only the failed tasks on the same partitions of the same snapshot. Spanner deletes
+        //       the session after it is idle for about an hour.
+        keepTransaction = true;
+        List<TaskReport> reports = control.run(task.toTaskSource(), schema, taskPartitions.size());
+        keepTransaction = false;
+        return reports;
+      } finally {
+        if (keepTransaction) {
+          logger.warn(
+              "Keep the batch transaction to resume the failed tasks by `embulk run -r`, which"
+                  + " must be run within an hour.");
+        } else {
+          txn.cleanup();
+        }
+      }
+    } catch (SQLException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  // NOTE: The limits are shared by all the tasks, which may read at the same time, so each task
+  //       reads by its share of them.
+  private void divideRateLimits(PluginTask task, int taskCount) {
+    if (taskCount <= 1
+        || (!task.getMaxRowsPerSecond().isPresent() && !task.getMaxBytesPerSecond().isPresent())) {
+      return;
+    }
+    task.setMaxRowsPerSecond(task.getMaxRowsPerSecond().map(n -> Math.max(1L, n / taskCount)));
+    task.setMaxBytesPerSecond(task.getMaxBytesPerSecond().map(n -> Math.max(1L, n / taskCount)));
+    logger.info(
+        "Each of the {} tasks reads up to {} rows and {} bytes per second.",
+        taskCount,
+        task.getMaxRowsPerSecond().map(String::valueOf).orElse("unlimited"),
+        task.getMaxBytesPerSecond().map(String::valueOf).orElse("unlimited"));
+  }
+
+  // NOTE: The primary key is looked up once for all the tasks.
+  private void findKeyRangeColumn(SpannerJdbcInputConnection con, PluginTask task) {
+    String table = ReadOptions.fromTask(task).getKeyRangeTable().get();
+    Optional<String> column = con.findFirstKeyColumn(table);
+    if (!column.isPresent()) {
+      logger.warn("Do not shard the query because the primary key of '{}' is not found.", table);
+      task.setKeyRangeShards(Optional.empty());
+      return;
+    }
+    task.setKeyRangeColumn(column);
+  }
+
+  // NOTE: The ranges are filtered on the result of the query, so the query is read by a single
+  //       stream unless the key column is a column of the result.
+  private void checkKeyRangeColumn(PluginTask task) {
+    if (!task.getKeyRangeShards().isPresent() || !task.getKeyRangeColumn().isPresent()) {
+      return;
+    }
+    String column = task.getKeyRangeColumn().get();
+    if (task.getQuerySchema().getColumns().stream().noneMatch(c -> c.getName().equals(column))) {
+      logger.warn(
+          "Do not shard the query because the key column '{}' is not a column of the result of"
+              + " the query.",
+          column);
+      task.setKeyRangeShards(Optional.empty());
+    }
+  }
+
+  // NOTE: The read timestamp is fixed before the tasks start, and it is the upper bound of the
+  //       commit timestamps of this run and the lower bound of the next run.
+  private void fixCommitTimestampRange(PluginTask task, Timestamp readTimestamp) {
+    fixReadTimestamp(task, readTimestamp);
+    task.setBuiltQuery(CommitTimestampRange.apply(task, readTimestamp));
+    logger.info(
+        "Read the rows committed from {} to {}.",
+        task.getLastCommitTimestamp().orElse("the beginning"),
+        readTimestamp);
+  }
+
+  // NOTE: Make all the tasks read the same snapshot by replacing the timestamp bound with the
+  //       exact read timestamp.
+  private void fixReadTimestamp(PluginTask task, Timestamp readTimestamp) {
+    logger.info("Read the snapshot at {}.", readTimestamp);
+    task.setReadTimestamp(Optional.of(readTimestamp.toString()));
+    task.setExactStaleness(Optional.empty());
+    task.setMaxStaleness(Optional.empty());
+  }
+
+  private List<List<String>> assignPartitions(
+      List<Partition> partitions, Optional<Integer> maxTasks) {
+    int taskCount = Math.max(1, Math.min(partitions.size(), maxTasks.orElse(partitions.size())));
+    List<List<String>> taskPartitions = new ArrayList<>(taskCount);
+    for (int i = 0; i < taskCount; i++) {
+      taskPartitions.add(new ArrayList<>());
+    }
+    // NOTE: Assign partitions in round-robin because the neighbouring partitions tend to have
+    //       similar sizes.
+    for (int i = 0; i < partitions.size(); i++) {
+      taskPartitions.get(i % taskCount).add(PartitionCodec.encode(partitions.get(i)));
+    }
+    return taskPartitions;
+  }
+
+  @Override
+  public TaskReport run(TaskSource taskSource, Schema schema, int taskIndex, PageOutput output) {
+    PluginTask task = TASK_MAPPER.map(taskSource, PluginTask.class);
+    if (ChangeStreamRead.isChangeStream(task)) {
+      return runChangeStream(task, schema, output);
+    }
+    // NOTE: The ordered incremental loading is left to AbstractJdbcInputPlugin, which keeps the
+    //       last record.
+    if (task.getIncremental() && !task.getIncrementalPartitioned()) {
+      if (task.getKeyRangeShards().isPresent()) {
+        logger.warn(
+            "'key_range_shards' is ignored because the ordered incremental loading reads the rows"
+                + " in order.");
+        task.setKeyRangeShards(Optional.empty());
+      }
+      return super.run(task.toTaskSource(), schema, taskIndex, output);
+    }
+
+    PageBuilder pageBuilder = Exec.getPageBuilder(Exec.getBufferAllocator(), schema, output);
+    TaskReport report = CONFIG_MAPPER_FACTORY.newTaskReport();
+    long totalRows = 0;
+    try (SpannerJdbcInputConnection con = (SpannerJdbcInputConnection) newConnection(task)) {
+      List<ColumnGetter> getters = newColumnGetters(con, task, task.getQuerySchema(), pageBuilder);
+      LastRecordTracker tracker = null;
+      if (task.getIncremental()) {
+        tracker =
+            new LastRecordTracker(
+                task.getQuerySchema(), task.getIncrementalColumnIndexes(), getters);
+      }
+      try (BatchSelect cursor = newBatchSelect(con, task, taskIndex, getters)) {
+        Optional<List<SpannerColumnGetter>> spannerGetters = Optional.empty();
+        // NOTE: The last record is encoded by the JDBC column getters.
+        if (cursor instanceof ParallelReadBatchSelect && tracker == null) {
+          spannerGetters = newSpannerColumnGetters(task, pageBuilder);
+        }
+        while (true) {
+          long rows =
+              spannerGetters.isPresent()
+                  ? fetch((ParallelReadBatchSelect) cursor, spannerGetters.get(), pageBuilder)
+                  : fetch(cursor, getters, pageBuilder, tracker);
+          if (rows <= 0L) {
+            break;
+          }
+          totalRows += rows;
+        }
+        pageBuilder.finish();
+        runAfterSelect(con, task);
+        if (tracker != null) {
+          tracker.getLastRecord().ifPresent(r -> report.set("last_record", r));
+        }
+        if (cursor instanceof ParallelReadBatchSelect) {
+          ReadMetrics.Summary summary = ((ParallelReadBatchSelect) cursor).summarizeMetrics();
+          logger.info("Partition metrics of the task {}: {}", taskIndex, summary);
+          if (task.getReportPartitionMetrics()) {
+            report.set("partition_metrics", summary.toMap());
+          }
+        }
+      }
+    } catch (SQLException ex) {
+      throw new RuntimeException(ex);
+    }
+    logger.info("Loaded {} rows.", totalRows);
+    return report;
+  }
+
+  // NOTE: `after_select` runs after pageBuilder.finish in the same way as AbstractJdbcInputPlugin,
+  //       because the reads of this plugin do not go through its run.
+  private void runAfterSelect(SpannerJdbcInputConnection con, PluginTask task)
+      throws SQLException {
+    if (task.getAfterSelect().isPresent()) {
+      con.executeAfterSelect(task.getAfterSelect().get());
+    }
+  }
+
+  private BatchSelect newBatchSelect(
+      SpannerJdbcInputConnection con, PluginTask task, int taskIndex, List<ColumnGetter> getters)
+      throws SQLException {
+    if (!task.getBatchTransactionId().isPresent()) {
+      if (TableRead.isTableRead(task)) {
+        return con.newTableReadBatchSelect(TableRead.fromTask(task));
+      }
+      return con.newSelectCursor(
+          task.getBuiltQuery(), getters, task.getFetchRows(), task.getSocketTimeout());
+    }
+    BatchTransactionId txnId =
+        PartitionCodec.decodeTransactionId(task.getBatchTransactionId().get());
+    List<Partition> partitions =
+        task.getTaskPartitions().get(taskIndex).stream()
+            .map(PartitionCodec::decodePartition)
+            .collect(Collectors.toList());
+    return con.newPartitionedBatchSelect(
+        task.getBuiltQuery(),
+        getters,
+        task.getFetchRows(),
+        task.getSocketTimeout(),
+        txnId,
+        partitions);
+  }
+
+  private Optional<List<SpannerColumnGetter>> newSpannerColumnGetters(
+      PluginTask task, PageBuilder pageBuilder) {
+    List<JdbcColumn> columns = task.getQuerySchema().getColumns();
+    List<JdbcColumnOption> options =
+        columnOptionsOf(
+            task, task.getQuerySchema(), newColumnGetterFactory(null, task.getDefaultTimeZone()));
+    List<Type> toTypes =
+        pageBuilder.getSchema().getColumns().stream()
+            .map(Column::getType)
+            .collect(Collectors.toList());
+    return new SpannerColumnGetterFactory(
+            pageBuilder, task.getBytesFormat().map(BytesEncoder::formatOf), task.getJsonAsString())
+        .newColumnGetters(columns, options, toTypes);
+  }
+
+  private long fetch(
+      ParallelReadBatchSelect cursor, List<SpannerColumnGetter> getters, PageBuilder pageBuilder) {
+    com.google.cloud.spanner.ResultSet result = cursor.fetchResultSet();
+    if (result == null) {
+      return 0;
+    }
+
+    List<Column> columns = pageBuilder.getSchema().getColumns();
+    long rows = 0;
+    long reportRows = 500;
+    while (true) {
+      try {
+        if (!result.next()) {
+          break;
+        }
+      } catch (SpannerException ex) {
+        result = cursor.retryResultSet(ex);
+        continue;
+      }
+      for (int i = 0; i < getters.size(); i++) {
+        getters.get(i).getAndSet(result, i, columns.get(i));
+      }
+      pageBuilder.addRecord();
+      rows++;
+      if (rows % reportRows == 0) {
+        logger.info(String.format("Fetched %,d rows.", rows));
+        reportRows *= 2;
+      }
+    }
+
+    return rows;
+  }
+
+  private long fetch(
+      BatchSelect cursor,
+      List<ColumnGetter> getters,
+      PageBuilder pageBuilder,
+      LastRecordTracker tracker)
+      throws SQLException {
+    ResultSet result = cursor.fetch();
+    if (result == null) {
+      return 0;
+    }
+
+    List<Column> columns = pageBuilder.getSchema().getColumns();
+    long rows = 0;
+    long reportRows = 500;
+    while (true) {
+      try {
+        if (!result.next()) {
+          break;
+        }
+      } catch (SQLException ex) {
+        result = retry(cursor, ex);
+        continue;
+      }
+      for (int i = 0; i < getters.size(); i++) {
+        int index = i + 1; // JDBC column index begins from 1
+        getters.get(i).getAndSet(result, index, columns.get(i));
+      }
+      if (tracker != null) {
+        tracker.accept(result);
+      }
+      pageBuilder.addRecord();
+      rows++;
+      if (rows % reportRows == 0) {
+        logger.info(String.format("Fetched %,d rows.", rows));
+        reportRows *= 2;
+      }
+    }
+
+    return rows;
+  }
+
+  // NOTE: The JDBC driver wraps the error of the stream of a partition in a SQLException.
+  private ResultSet retry(BatchSelect cursor, SQLException ex) throws SQLException {
+    if (cursor instanceof ParallelReadBatchSelect && ex.getCause() instanceof SpannerException) {
+      return ((ParallelReadBatchSelect) cursor).retry((SpannerException) ex.getCause());
+    }
+    throw ex;
+  }
+
+  // NOTE: Same as AbstractJdbcInputPlugin's one, which is not visible from subclasses.
+  protected List<ColumnGetter> newColumnGetters(
+      JdbcInputConnection con,
+      AbstractJdbcInputPlugin.PluginTask task,
+      JdbcSchema querySchema,
+      PageBuilder pageBuilder)
+      throws SQLException {
+    ColumnGetterFactory factory = newColumnGetterFactory(pageBuilder, task.getDefaultTimeZone());
+    List<JdbcColumnOption> options = columnOptionsOf(task, querySchema, factory);
+    List<ColumnGetter> getters = new ArrayList<>();
+    for (int i = 0; i < querySchema.getCount(); i++) {
+      getters.add(factory.newColumnGetter(con, task, querySchema.getColumn(i), options.get(i)));
+    }
+    return Collections.unmodifiableList(getters);
+  }
+
+  private List<JdbcColumnOption> columnOptionsOf(
+      AbstractJdbcInputPlugin.PluginTask task,
+      JdbcSchema querySchema,
+      ColumnGetterFactory factory) {
+    List<JdbcColumnOption> options = new ArrayList<>();
+    for (JdbcColumn c : querySchema.getColumns()) {
+      options.add(
+          columnOptionOf(
+              task.getColumnOptions(),
+              task.getDefaultColumnOptions(),
+              c,
+              factory.getJdbcType(c.getSqlType())));
+    }
+    return options;
+  }
+
+  private static JdbcColumnOption columnOptionOf(
+      Map<String, JdbcColumnOption> columnOptions,
+      Map<String, JdbcColumnOption> defaultColumnOptions,
+      JdbcColumn targetColumn,
+      String targetColumnSQLType) {
+    JdbcColumnOption columnOption = columnOptions.get(targetColumn.getName());
+    if (columnOption == null) {
+      String foundName = null;
+      for (Map.Entry<String, JdbcColumnOption> entry : columnOptions.entrySet()) {
+        if (entry.getKey().equalsIgnoreCase(targetColumn.getName())) {
+          if (columnOption != null) {
+            throw new ConfigException(
+                String.format(
+                    "Cannot specify column '%s' because both '%s' and '%s' exist in"
+                        + " column_options.",
+                    targetColumn.getName(), foundName, entry.getKey()));
+          }
+          foundName = entry.getKey();
+          columnOption = entry.getValue();
+        }
+      }
+    }
+    if (columnOption != null) {
+      return columnOption;
+    }
+    if (defaultColumnOptions.containsKey(targetColumnSQLType)) {
+      return defaultColumnOptions.get(targetColumnSQLType);
+    }
+    return CONFIG_MAPPER.map(CONFIG_MAPPER_FACTORY.newConfigSource(), JdbcColumnOption.class);
   }
 
   @Override
@@ -84,10 +884,28 @@ public class SpannerInputPlugin extends AbstractJdbcInputPlugin {
 
     Connection con =
         DriverManager.getConnection(buildJdbcConnectionUrl(t), buildJdbcConnectionProperties(t));
-    SpannerClient client = SpannerClient.fromTask(t);
+    SpannerClient client = null;
     try {
+      client = SpannerClient.fromJdbcConnection(con, t).orElseGet(() -> SpannerClient.fromTask(t));
+      ReadOptions readOptions = ReadOptions.fromTask(t);
+      Optional<String> staleness = readOptions.getReadOnlyStaleness();
+      if (staleness.isPresent()) {
+        try (java.sql.Statement stmt = con.createStatement()) {
+          stmt.execute("SET READ_ONLY_STALENESS = '" + staleness.get() + "'");
+        }
+      }
+      if (readOptions.getRpcPriority().isPresent()) {
+        try (java.sql.Statement stmt = con.createStatement()) {
+          stmt.execute("SET RPC_PRIORITY = '" + readOptions.getRpcPriority().get() + "'");
+        }
+      }
       SpannerJdbcInputConnection c =
-          new SpannerJdbcInputConnection(con, client, t.getUseEmulator());
+          new SpannerJdbcInputConnection(
+              con,
+              client,
+              t.getUseEmulator(),
+              t.getIncremental() && t.getPartitionedIncremental(),
+              SchemaCache.fromTask(t));
       con = null;
       client = null;
       return c;
@@ -133,6 +951,9 @@ public class SpannerInputPlugin extends AbstractJdbcInputPlugin {
             file -> props.setProperty("credentials", file.getPath().toAbsolutePath().toString()));
     task.getOauthToken().ifPresent(token -> props.setProperty("oauthToken", token));
     task.getOptimizerVersion().ifPresent(version -> props.setProperty("optimizerVersion", version));
+    task.getNumChannels().ifPresent(n -> props.setProperty("numChannels", String.valueOf(n)));
+    task.getMinSessions().ifPresent(n -> props.setProperty("minSessions", String.valueOf(n)));
+    task.getMaxSessions().ifPresent(n -> props.setProperty("maxSessions", String.valueOf(n)));
     if (task.getUseEmulator()) {
       props.setProperty("autoConfigEmulator", "true");
       props.setProperty("usePlainText", "true");
@@ -0,0 +1,41 @@
+package org.embulk.input.spanner;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// NOTE: Wraps a query as a subquery to filter or limit its result without parsing it. The
+//       statement hints stay at the beginning, and the query is put on its own lines so that a
+//       trailing comment of the query does not comment out the rest.
+public class Subquery {
+  private static final Pattern STATEMENT_HINT = Pattern.compile("^\\s*(@\\{[^}]*\\}\\s*)+");
+
+  private Subquery() {}
+
+  public static String wrap(String sql, String alias) {
+    String hint = "";
+    Matcher m = STATEMENT_HINT.matcher(sql);
+    if (m.find()) {
+      hint = m.group();
+      sql = sql.substring(m.end());
+    }
+    sql = sql.trim();
+    if (sql.endsWith(";")) {
+      sql = sql.substring(0, sql.length() - 1);
+    }
+    return String.format("%sSELECT * FROM (\n%s\n) AS %s", hint, sql, alias);
+  }
+
+  // NOTE: The wrapped query followed by `WHERE`, to which the caller appends the conditions on
+  //       the columns of `columnOf`.
+  public static String filter(String sql, String alias) {
+    return wrap(sql, alias) + "\nWHERE ";
+  }
+
+  public static String columnOf(String alias, String column) {
+    return alias + "." + quote(column);
+  }
+
+  public static String quote(String identifier) {
+    return "`" + identifier.replace("`", "\\`") + "`";
+  }
+}
@@ -0,0 +1,173 @@
+package org.embulk.input.spanner;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.cloud.spanner.Key;
+import com.google.cloud.spanner.KeyRange;
+import com.google.cloud.spanner.KeySet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import org.embulk.config.ConfigException;
+import org.embulk.input.jdbc.JdbcColumn;
+import org.embulk.input.spanner.SpannerInputPlugin.PluginTask;
+import org.embulk.util.config.Config;
+import org.embulk.util.config.ConfigDefault;
+import org.embulk.util.config.Task;
+
+// NOTE: The parameters of the Read API for `read_mode: table_read`, which reads the rows of a
+//       table or an index by keys without the SQL planner.
+public class TableRead {
+  public static final String QUERY = "query";
+  public static final String TABLE_READ = "table_read";
+
+  public interface KeyRangeTask extends Task {
+    // NOTE: Empty means the beginning of the table.
+    @Config("start")
+    @ConfigDefault("null")
+    public Optional<List<JsonNode>> getStart();
+
+    // NOTE: Empty means the end of the table.
+    @Config("end")
+    @ConfigDefault("null")
+    public Optional<List<JsonNode>> getEnd();
+
+    @Config("start_closed")
+    @ConfigDefault("true")
+    public boolean getStartClosed();
+
+    @Config("end_closed")
+    @ConfigDefault("false")
+    public boolean getEndClosed();
+  }
+
+  public static boolean isTableRead(PluginTask task) {
+    return TABLE_READ.equals(task.getReadMode());
+  }
+
+  public static void validate(PluginTask task) {
+    if (!QUERY.equals(task.getReadMode())
+        && !TABLE_READ.equals(task.getReadMode())
+        && !ChangeStreamRead.CHANGE_STREAM.equals(task.getReadMode())) {
+      throw new ConfigException(
+          String.format(
+              "'read_mode' must be '%s', '%s' or '%s': %s",
+              QUERY, TABLE_READ, ChangeStreamRead.CHANGE_STREAM, task.getReadMode()));
+    }
+    if (!isTableRead(task)) {
+      if (task.getIndex().isPresent() || !task.getKeyRanges().isEmpty()) {
+        throw new ConfigException("'index' and 'key_ranges' require 'read_mode: table_read'.");
+      }
+      return;
+    }
+    if (task.getQuery().isPresent() || !task.getTable().isPresent()) {
+      throw new ConfigException("'read_mode: table_read' requires 'table' instead of 'query'.");
+    }
+    if (task.getWhere().isPresent() || task.getOrderBy().isPresent()) {
+      throw new ConfigException(
+          "'where' and 'order_by' are not supported by 'read_mode: table_read'. Use 'key_ranges'"
+              + " to filter the rows by keys.");
+    }
+    if (task.getIncremental()) {
+      throw new ConfigException("'incremental' is not supported by 'read_mode: table_read'.");
+    }
+    for (KeyRangeTask range : task.getKeyRanges()) {
+      keyRangeOf(range);
+    }
+  }
+
+  // NOTE: The columns are the ones of the query schema, which is the schema of
+  //       `SELECT <select> FROM <table>`. So `select` must be a list of column names.
+  public static TableRead fromTask(PluginTask task) {
+    List<String> columns =
+        task.getQuerySchema().getColumns().stream()
+            .map(JdbcColumn::getName)
+            .collect(Collectors.toList());
+    return new TableRead(
+        task.getTable().get(), task.getIndex(), keySetOf(task.getKeyRanges()), columns);
+  }
+
+  private static KeySet keySetOf(List<KeyRangeTask> ranges) {
+    if (ranges.isEmpty()) {
+      return KeySet.all();
+    }
+    KeySet.Builder builder = KeySet.newBuilder();
+    for (KeyRangeTask range : ranges) {
+      builder.addRange(keyRangeOf(range));
+    }
+    return builder.build();
+  }
+
+  // NOTE: An empty key is a prefix of all the keys, so an open end is closed to read to the end.
+  private static KeyRange keyRangeOf(KeyRangeTask range) {
+    return KeyRange.newBuilder()
+        .setStart(keyOf(range.getStart().orElse(Collections.emptyList())))
+        .setStartType(
+            range.getStartClosed() || !range.getStart().isPresent()
+                ? KeyRange.Endpoint.CLOSED
+                : KeyRange.Endpoint.OPEN)
+        .setEnd(keyOf(range.getEnd().orElse(Collections.emptyList())))
+        .setEndType(
+            range.getEndClosed() || !range.getEnd().isPresent()
+                ? KeyRange.Endpoint.CLOSED
+                : KeyRange.Endpoint.OPEN)
+        .build();
+  }
+
+  // NOTE: Spanner decodes the parts of a key by the types of the key columns, so TIMESTAMP, DATE,
+  //       NUMERIC and BYTES (base64) parts can be written as strings as well as INT64 ones.
+  private static Key keyOf(List<JsonNode> parts) {
+    Key.Builder builder = Key.newBuilder();
+    for (JsonNode part : parts) {
+      if (part == null || part.isNull()) {
+        builder.appendObject(null);
+      } else if (part.isIntegralNumber()) {
+        builder.append(part.longValue());
+      } else if (part.isNumber()) {
+        builder.append(part.doubleValue());
+      } else if (part.isTextual()) {
+        builder.append(part.textValue());
+      } else if (part.isBoolean()) {
+        builder.append(part.booleanValue());
+      } else {
+        throw new ConfigException("A part of the key in 'key_ranges' must be a scalar: " + part);
+      }
+    }
+    return builder.build();
+  }
+
+  private final String table;
+  private final Optional<String> index;
+  private final KeySet keySet;
+  private final List<String> columns;
+
+  public TableRead(String table, Optional<String> index, KeySet keySet, List<String> columns) {
+    this.table = table;
+    this.index = index;
+    this.keySet = keySet;
+    this.columns = columns;
+  }
+
+  public String getTable() {
+    return table;
+  }
+
+  public Optional<String> getIndex() {
+    return index;
+  }
+
+  public KeySet getKeySet() {
+    return keySet;
+  }
+
+  public List<String> getColumns() {
+    return columns;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "table=%s, index=%s, key_set=%s, columns=%s",
+        table, index.orElse("(none)"), keySet, columns);
+  }
+}
@@ -0,0 +1,80 @@
+package org.embulk.input.spanner.getter;
+
+import com.google.cloud.ByteArray;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Locale;
+import org.embulk.config.ConfigException;
+import org.msgpack.value.Value;
+import org.msgpack.value.ValueFactory;
+
+// NOTE: Encodes BYTES values by `bytes_format` for the native and the JDBC column getters. An
+//       encoder belongs to a getter of a column, so the buffers are reused for the rows without
+//       synchronization and only the resulting strings are allocated per row.
+public class BytesEncoder {
+  public enum Format {
+    BASE64,
+    HEX
+  }
+
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  public static Format formatOf(String name) {
+    try {
+      return Format.valueOf(name.toUpperCase(Locale.ENGLISH));
+    } catch (IllegalArgumentException e) {
+      throw new ConfigException("'bytes_format' must be 'base64' or 'hex': " + name, e);
+    }
+  }
+
+  private final Format format;
+  private byte[] base64Buffer = new byte[0];
+  private char[] hexBuffer = new char[0];
+
+  public BytesEncoder(Format format) {
+    this.format = format;
+  }
+
+  public Format getFormat() {
+    return format;
+  }
+
+  public String encode(byte[] bytes) {
+    if (format == Format.HEX) {
+      return encodeHex(bytes);
+    }
+    int length = 4 * ((bytes.length + 2) / 3);
+    if (base64Buffer.length < length) {
+      base64Buffer = new byte[length];
+    }
+    int written = Base64.getEncoder().encode(bytes, base64Buffer);
+    return new String(base64Buffer, 0, written, StandardCharsets.US_ASCII);
+  }
+
+  // NOTE: The Spanner client encodes base64 from its buffer without copying the bytes, while hex
+  //       is encoded from a copy of them.
+  public String encode(ByteArray bytes) {
+    if (format == Format.HEX) {
+      return encodeHex(bytes.toByteArray());
+    }
+    return bytes.toBase64();
+  }
+
+  // NOTE: A JSON column holds the encoded string, because a msgpack binary is not a JSON value and
+  //       cannot be written by the output plugins that serialize JSON columns as JSON text.
+  public Value toJson(byte[] bytes) {
+    return ValueFactory.newString(encode(bytes));
+  }
+
+  private String encodeHex(byte[] bytes) {
+    int length = bytes.length * 2;
+    if (hexBuffer.length < length) {
+      hexBuffer = new char[length];
+    }
+    for (int i = 0; i < bytes.length; i++) {
+      hexBuffer[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+      hexBuffer[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+    }
+    return new String(hexBuffer, 0, length);
+  }
+}
@@ -0,0 +1,12 @@
+package org.embulk.input.spanner.getter;
+
+import com.google.cloud.spanner.ResultSet;
+import org.embulk.spi.Column;
+
+// NOTE: Reads a column of the current row from Spanner's ResultSet directly and sets it to the
+//       PageBuilder, without wrapping the ResultSet by the JDBC driver. The column index begins
+//       from 0 unlike JDBC.
+@FunctionalInterface
+public interface SpannerColumnGetter {
+  void getAndSet(ResultSet from, int fromIndex, Column toColumn);
+}
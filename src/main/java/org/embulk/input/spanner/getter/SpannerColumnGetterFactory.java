@@ -0,0 +1,218 @@
+package org.embulk.input.spanner.getter;
+
+import com.google.cloud.Date;
+import com.google.cloud.Timestamp;
+import java.math.BigDecimal;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import org.embulk.input.jdbc.JdbcColumn;
+import org.embulk.input.jdbc.JdbcColumnOption;
+import org.embulk.spi.PageBuilder;
+import org.embulk.spi.type.Type;
+import org.embulk.util.json.JsonParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// NOTE: Creates getters that produce the same values as SpannerJdbcColumnGetterFactory's ones for
+//       the supported combinations of the Spanner type, `value_type` and the embulk type. The
+//       conversion is resolved once per column here, not per row.
+public class SpannerColumnGetterFactory {
+  private static final Logger logger = LoggerFactory.getLogger(SpannerColumnGetterFactory.class);
+
+  // NOTE: The powers of ten that are exact in double.
+  private static final double[] POWERS_OF_TEN = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+    1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
+  private final PageBuilder to;
+  private final Optional<BytesEncoder.Format> bytesFormat;
+  private final boolean jsonAsString;
+  private final JsonParser jsonParser = new JsonParser();
+
+  public SpannerColumnGetterFactory(PageBuilder to) {
+    this(to, Optional.empty(), false);
+  }
+
+  public SpannerColumnGetterFactory(
+      PageBuilder to, Optional<BytesEncoder.Format> bytesFormat, boolean jsonAsString) {
+    this.to = to;
+    this.bytesFormat = bytesFormat;
+    this.jsonAsString = jsonAsString;
+  }
+
+  // NOTE: Returns empty if any of the columns cannot be read natively. Then the JDBC column
+  //       getters should be used for all the columns.
+  public Optional<List<SpannerColumnGetter>> newColumnGetters(
+      List<JdbcColumn> columns, List<JdbcColumnOption> options, List<Type> toTypes) {
+    List<SpannerColumnGetter> getters = new ArrayList<>(columns.size());
+    for (int i = 0; i < columns.size(); i++) {
+      Optional<SpannerColumnGetter> getter =
+          newColumnGetter(columns.get(i), options.get(i), toTypes.get(i));
+      if (!getter.isPresent()) {
+        logger.info(
+            "Use JDBC column getters because the column '{}' ({} as {}, value_type: {}) is not"
+                + " supported natively.",
+            columns.get(i).getName(),
+            columns.get(i).getTypeName(),
+            toTypes.get(i),
+            options.get(i).getValueType());
+        return Optional.empty();
+      }
+      getters.add(getter.get());
+    }
+    return Optional.of(getters);
+  }
+
+  public Optional<SpannerColumnGetter> newColumnGetter(
+      JdbcColumn column, JdbcColumnOption option, Type toType) {
+    String valueType = option.getValueType();
+    boolean isDefaultValueType = valueType.equals("coalesce");
+
+    if (column.getTypeName().toLowerCase(Locale.ENGLISH).equals("json")) {
+      // NOTE: The JDBC driver returns the text of JSON as is by getString.
+      if ((valueType.equals("string") || (isDefaultValueType && jsonAsString))
+          && toType.equals(org.embulk.spi.type.Types.STRING)) {
+        return nullable((from, i, c) -> to.setString(c, from.getJson(i)));
+      }
+      if ((isDefaultValueType || valueType.equals("json"))
+          && toType.equals(org.embulk.spi.type.Types.JSON)) {
+        return nullable((from, i, c) -> to.setJson(c, jsonParser.parse(from.getJson(i))));
+      }
+      return Optional.empty();
+    }
+
+    switch (column.getSqlType()) {
+      case Types.BIGINT:
+        if (!isDefaultValueType && !valueType.equals("long")) {
+          return Optional.empty();
+        }
+        if (toType.equals(org.embulk.spi.type.Types.LONG)) {
+          return nullable((from, i, c) -> to.setLong(c, from.getLong(i)));
+        }
+        if (toType.equals(org.embulk.spi.type.Types.DOUBLE)) {
+          return nullable((from, i, c) -> to.setDouble(c, (double) from.getLong(i)));
+        }
+        if (toType.equals(org.embulk.spi.type.Types.STRING)) {
+          return nullable((from, i, c) -> to.setString(c, Long.toString(from.getLong(i))));
+        }
+        return Optional.empty();
+      case Types.DOUBLE:
+        if (!isDefaultValueType && !valueType.equals("double")) {
+          return Optional.empty();
+        }
+        if (toType.equals(org.embulk.spi.type.Types.DOUBLE)) {
+          return nullable((from, i, c) -> to.setDouble(c, from.getDouble(i)));
+        }
+        if (toType.equals(org.embulk.spi.type.Types.STRING)) {
+          return nullable((from, i, c) -> to.setString(c, Double.toString(from.getDouble(i))));
+        }
+        return Optional.empty();
+      case Types.BOOLEAN:
+        if (!isDefaultValueType && !valueType.equals("boolean")) {
+          return Optional.empty();
+        }
+        if (toType.equals(org.embulk.spi.type.Types.BOOLEAN)) {
+          return nullable((from, i, c) -> to.setBoolean(c, from.getBoolean(i)));
+        }
+        return Optional.empty();
+      case Types.NVARCHAR:
+        if (!isDefaultValueType && !valueType.equals("string")) {
+          return Optional.empty();
+        }
+        if (toType.equals(org.embulk.spi.type.Types.STRING)) {
+          return nullable((from, i, c) -> to.setString(c, from.getString(i)));
+        }
+        return Optional.empty();
+      case Types.NUMERIC:
+        if (valueType.equals("string") && toType.equals(org.embulk.spi.type.Types.STRING)) {
+          return nullable((from, i, c) -> to.setString(c, from.getBigDecimal(i).toString()));
+        }
+        if (!isDefaultValueType && !valueType.equals("decimal")) {
+          return Optional.empty();
+        }
+        if (toType.equals(org.embulk.spi.type.Types.DOUBLE)) {
+          return nullable((from, i, c) -> to.setDouble(c, toDouble(from.getBigDecimal(i))));
+        }
+        if (toType.equals(org.embulk.spi.type.Types.STRING)) {
+          return nullable(
+              (from, i, c) -> to.setString(c, from.getBigDecimal(i).toPlainString()));
+        }
+        return Optional.empty();
+      case Types.BINARY:
+        // NOTE: Spanner JDBC driver returns BYTES as a base64 string by getString.
+        if (valueType.equals("string") && toType.equals(org.embulk.spi.type.Types.STRING)) {
+          return nullable((from, i, c) -> to.setString(c, from.getBytes(i).toBase64()));
+        }
+        if (!isDefaultValueType || !bytesFormat.isPresent()) {
+          return Optional.empty();
+        }
+        BytesEncoder encoder = new BytesEncoder(bytesFormat.get());
+        if (toType.equals(org.embulk.spi.type.Types.STRING)) {
+          return nullable((from, i, c) -> to.setString(c, encoder.encode(from.getBytes(i))));
+        }
+        if (toType.equals(org.embulk.spi.type.Types.JSON)) {
+          return nullable(
+              (from, i, c) -> to.setJson(c, encoder.toJson(from.getBytes(i).toByteArray())));
+        }
+        return Optional.empty();
+      case Types.DATE:
+        if (!isDefaultValueType && !valueType.equals("date")) {
+          return Optional.empty();
+        }
+        if (toType.equals(org.embulk.spi.type.Types.TIMESTAMP)) {
+          return nullable((from, i, c) -> to.setTimestamp(c, toTimestamp(from.getDate(i))));
+        }
+        return Optional.empty();
+      case Types.TIMESTAMP:
+        if (!isDefaultValueType && !valueType.equals("timestamp")) {
+          return Optional.empty();
+        }
+        if (toType.equals(org.embulk.spi.type.Types.TIMESTAMP)) {
+          return nullable((from, i, c) -> to.setTimestamp(c, toTimestamp(from.getTimestamp(i))));
+        }
+        return Optional.empty();
+      default:
+        return Optional.empty();
+    }
+  }
+
+  private Optional<SpannerColumnGetter> nullable(SpannerColumnGetter getter) {
+    return Optional.of(
+        (from, i, c) -> {
+          if (from.isNull(i)) {
+            to.setNull(c);
+          } else {
+            getter.getAndSet(from, i, c);
+          }
+        });
+  }
+
+  // NOTE: The same value as BigDecimal#doubleValue, which formats the decimal into a string and
+  //       parses it unless the decimal is an integer. When the unscaled value and the power of ten
+  //       of the scale are exact in double, their quotient is rounded correctly as well.
+  static double toDouble(BigDecimal value) {
+    int scale = value.scale();
+    if (scale > 0 && scale < POWERS_OF_TEN.length && value.precision() <= 15) {
+      return value.unscaledValue().longValue() / POWERS_OF_TEN[scale];
+    }
+    return value.doubleValue();
+  }
+
+  @SuppressWarnings("deprecation")
+  private static org.embulk.spi.time.Timestamp toTimestamp(Timestamp value) {
+    return org.embulk.spi.time.Timestamp.ofEpochSecond(value.getSeconds(), value.getNanos());
+  }
+
+  // NOTE: Same as the JDBC path, DATE is converted to the midnight in the system time zone,
+  //       because the JDBC driver returns java.sql.Date.
+  @SuppressWarnings("deprecation")
+  private static org.embulk.spi.time.Timestamp toTimestamp(Date value) {
+    LocalDate date = LocalDate.of(value.getYear(), value.getMonth(), value.getDayOfMonth());
+    return org.embulk.spi.time.Timestamp.ofEpochMilli(java.sql.Date.valueOf(date).getTime());
+  }
+}
@@ -1,25 +1,44 @@
 package org.embulk.input.spanner.jdbc;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.cloud.Timestamp;
+import com.google.cloud.spanner.BatchReadOnlyTransaction;
+import com.google.cloud.spanner.BatchTransactionId;
+import com.google.cloud.spanner.Partition;
 import com.google.cloud.spanner.SpannerException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.List;
+import java.util.Optional;
 import org.embulk.input.jdbc.JdbcInputConnection;
 import org.embulk.input.jdbc.JdbcLiteral;
 import org.embulk.input.jdbc.JdbcSchema;
 import org.embulk.input.jdbc.getter.ColumnGetter;
+import org.embulk.input.spanner.ChangeStreamRead;
+import org.embulk.input.spanner.LastRecordTracker;
+import org.embulk.input.spanner.ReadMetrics;
+import org.embulk.input.spanner.SchemaCache;
 import org.embulk.input.spanner.SpannerClient;
 import org.embulk.input.spanner.SpannerClient.ParallelRead;
+import org.embulk.input.spanner.Subquery;
+import org.embulk.input.spanner.TableRead;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class SpannerJdbcInputConnection extends JdbcInputConnection {
   private static final Logger logger = LoggerFactory.getLogger(SpannerJdbcInputConnection.class);
 
+  private static final String NON_DISTRIBUTED_UNION_QUERY_MESSAGE =
+      "Query is not root partitionable since it does not have a DistributedUnion at the root. Please run EXPLAIN for query plan details.";
+
+  public static final String SCHEMA_SUBQUERY_ALIAS = "embulk_schema";
+
   private final SpannerClient client;
   private final boolean useEmulator;
+  private final boolean partitionedIncremental;
+  private final Optional<SchemaCache> schemaCache;
 
   public SpannerJdbcInputConnection(Connection connection, SpannerClient client)
       throws SQLException {
@@ -28,9 +47,30 @@ public class SpannerJdbcInputConnection extends JdbcInputConnection {
 
   public SpannerJdbcInputConnection(
       Connection connection, SpannerClient client, boolean useEmulator) throws SQLException {
+    this(connection, client, useEmulator, false);
+  }
+
+  public SpannerJdbcInputConnection(
+      Connection connection,
+      SpannerClient client,
+      boolean useEmulator,
+      boolean partitionedIncremental)
+      throws SQLException {
+    this(connection, client, useEmulator, partitionedIncremental, Optional.empty());
+  }
+
+  public SpannerJdbcInputConnection(
+      Connection connection,
+      SpannerClient client,
+      boolean useEmulator,
+      boolean partitionedIncremental,
+      Optional<SchemaCache> schemaCache)
+      throws SQLException {
     super(connection, null);
     this.client = client;
     this.useEmulator = useEmulator;
+    this.partitionedIncremental = partitionedIncremental;
+    this.schemaCache = schemaCache;
   }
 
   @Override
@@ -41,13 +81,96 @@ public class SpannerJdbcInputConnection extends JdbcInputConnection {
 
   @Override
   public JdbcSchema getSchemaOfQuery(String query) throws SQLException {
+    if (!schemaCache.isPresent()) {
+      return loadSchemaOfQuery(query);
+    }
+    SchemaCache cache = schemaCache.get();
+    String version =
+        cache
+            .getSchemaVersion()
+            .orElseGet(() -> SchemaCache.digestColumns(client.newDatabaseClient().singleUse()));
+    Optional<JdbcSchema> cached = cache.get(query, version);
+    if (cached.isPresent()) {
+      logger.info("Use the schema of the query cached in {}.", cache.getPath());
+      return cached.get();
+    }
+    JdbcSchema schema = loadSchemaOfQuery(query);
+    cache.put(query, version, schema);
+    return schema;
+  }
+
+  // NOTE: Spanner plans the query without executing it to return the metadata. The emulator does
+  //       not support it, so the query is executed with `LIMIT 0`.
+  private JdbcSchema loadSchemaOfQuery(String query) throws SQLException {
     return useEmulator ? getSchemaOfQueryForSpannerEmulator(query) : super.getSchemaOfQuery(query);
   }
 
+  // NOTE: ORDER BY makes the query not root partitionable. When the incremental loading is
+  //       partitioned, the query is built without it and `last_record` is computed as the maximum
+  //       of the incremental columns instead. The condition on the last record is the same.
+  @Override
+  public PreparedQuery buildIncrementalQuery(
+      String rawQuery,
+      JdbcSchema querySchema,
+      List<Integer> incrementalColumnIndexes,
+      List<JsonNode> incrementalValues,
+      boolean useRawQuery)
+      throws SQLException {
+    PreparedQuery query =
+        super.buildIncrementalQuery(
+            rawQuery, querySchema, incrementalColumnIndexes, incrementalValues, useRawQuery);
+    if (!isPartitionedIncremental(querySchema, incrementalColumnIndexes, useRawQuery)) {
+      return query;
+    }
+    String sql = query.getQuery();
+    int orderBy = sql.lastIndexOf(" ORDER BY ");
+    if (orderBy < 0) {
+      return query;
+    }
+    return new PreparedQuery(sql.substring(0, orderBy), query.getParameters());
+  }
+
+  private boolean isPartitionedIncremental(
+      JdbcSchema querySchema, List<Integer> incrementalColumnIndexes, boolean useRawQuery) {
+    if (!partitionedIncremental) {
+      return false;
+    }
+    Optional<String> reason =
+        reasonNotToPartitionIncremental(querySchema, incrementalColumnIndexes, useRawQuery);
+    reason.ifPresent(r -> logger.warn("'partitioned_incremental' is ignored because {}", r));
+    return !reason.isPresent();
+  }
+
+  // NOTE: This does not log the reason, which is logged once when the query is built.
+  public static boolean canPartitionIncremental(
+      JdbcSchema querySchema, List<Integer> incrementalColumnIndexes, boolean useRawQuery) {
+    return !reasonNotToPartitionIncremental(querySchema, incrementalColumnIndexes, useRawQuery)
+        .isPresent();
+  }
+
+  private static Optional<String> reasonNotToPartitionIncremental(
+      JdbcSchema querySchema, List<Integer> incrementalColumnIndexes, boolean useRawQuery) {
+    if (useRawQuery) {
+      return Optional.of("the raw query decides the order of rows.");
+    }
+    if (!LastRecordTracker.isSupported(querySchema, incrementalColumnIndexes)) {
+      return Optional.of(
+          "some of the incremental columns are not INT64, FLOAT64, NUMERIC, STRING, DATE or"
+              + " TIMESTAMP.");
+    }
+    return Optional.empty();
+  }
+
   protected JdbcSchema getSchemaOfQueryForSpannerEmulator(String query) throws SQLException {
+    try (PreparedStatement stmt =
+            connection.prepareStatement(Subquery.wrap(query, SCHEMA_SUBQUERY_ALIAS) + " LIMIT 0");
+        ResultSet rs = stmt.executeQuery()) {
+      return getSchemaOfResultMetadata(rs.getMetaData());
+    } catch (SQLException ex) {
+      logger.info("Execute the query to get its schema, because it cannot be limited to 0 rows.");
+    }
     try (PreparedStatement stmt = connection.prepareStatement(query)) {
-      // NOTE: We want to set `LIMIT 0` to the query, but it is difficult to do.
-      //       So, setMaxRows(1) and setFetchSize(1) are used instead.
+      // NOTE: setMaxRows(1) and setFetchSize(1) stop the query after the first row.
       stmt.setMaxRows(1);
       stmt.setFetchSize(1);
       try (ResultSet rs = stmt.executeQuery()) {
@@ -60,6 +183,112 @@ public class SpannerJdbcInputConnection extends JdbcInputConnection {
   protected BatchSelect newBatchSelect(
       PreparedQuery preparedQuery, List<ColumnGetter> getters, int fetchRows, int queryTimeout)
       throws SQLException {
+    PreparedStatement stmt = prepareStatement(preparedQuery, getters, fetchRows, queryTimeout);
+    try {
+      return new ParallelReadBatchSelect(client.newParallelRead(stmt));
+    } catch (SpannerException ex) {
+      if (isNotRootPartitionable(ex)) {
+        logger.info(
+            "Do not use parallel query because {}", NON_DISTRIBUTED_UNION_QUERY_MESSAGE, ex);
+        Optional<ParallelRead> keyRangeRead = client.newKeyRangeRead(stmt);
+        if (keyRangeRead.isPresent()) {
+          return new ParallelReadBatchSelect(keyRangeRead.get());
+        }
+        stmt.close();
+        setStatementTag();
+        return super.newBatchSelect(preparedQuery, getters, fetchRows, queryTimeout);
+      }
+      throw ex;
+    }
+  }
+
+  // NOTE: The JDBC driver tags the next statement executed on the connection, which is the query
+  //       of the batch select. The RPC priority is set on the connection when it is opened.
+  private void setStatementTag() throws SQLException {
+    Optional<String> tag = client.getReadOptions().getRequestTag();
+    if (tag.isPresent()) {
+      try (java.sql.Statement stmt = connection.createStatement()) {
+        stmt.execute("SET STATEMENT_TAG = '" + tag.get() + "'");
+      }
+    }
+  }
+
+  public void executeAfterSelect(String sql) throws SQLException {
+    executeUpdate(sql);
+    if (!connection.getAutoCommit()) {
+      connection.commit();
+    }
+  }
+
+  public BatchReadOnlyTransaction newBatchReadOnlyTransaction() {
+    return client.newBatchReadOnlyTransaction();
+  }
+
+  public BatchReadOnlyTransaction newBatchReadOnlyTransaction(Timestamp readTimestamp) {
+    return client.newBatchReadOnlyTransaction(readTimestamp);
+  }
+
+  public BatchReadOnlyTransaction newBatchReadOnlyTransaction(BatchTransactionId txnId) {
+    return client.newBatchReadOnlyTransaction(txnId);
+  }
+
+  public ChangeStreamRead newChangeStreamRead(
+      String changeStream, Timestamp start, Timestamp end, long heartbeatMillis) {
+    return client.newChangeStreamRead(changeStream, start, end, heartbeatMillis);
+  }
+
+  public Optional<String> findFirstKeyColumn(String table) {
+    return client.findFirstKeyColumn(table);
+  }
+
+  public Timestamp resolveReadTimestamp() {
+    return client.resolveReadTimestamp();
+  }
+
+  // NOTE: Returns empty if the query is not root partitionable. Then the caller should read the
+  //       query by a single stream instead.
+  public Optional<List<Partition>> partitionQuery(
+      BatchReadOnlyTransaction txn,
+      PreparedQuery preparedQuery,
+      List<ColumnGetter> getters,
+      int fetchRows,
+      int queryTimeout)
+      throws SQLException {
+    try (PreparedStatement stmt =
+        prepareStatement(preparedQuery, getters, fetchRows, queryTimeout)) {
+      return Optional.of(client.partitionQuery(txn, stmt));
+    } catch (SpannerException ex) {
+      if (isNotRootPartitionable(ex)) {
+        logger.info("Do not partition the query because {}", NON_DISTRIBUTED_UNION_QUERY_MESSAGE);
+        return Optional.empty();
+      }
+      throw ex;
+    }
+  }
+
+  public List<Partition> partitionRead(BatchReadOnlyTransaction txn, TableRead tableRead) {
+    return client.partitionRead(txn, tableRead);
+  }
+
+  public BatchSelect newTableReadBatchSelect(TableRead tableRead) {
+    return new ParallelReadBatchSelect(client.newTableRead(tableRead));
+  }
+
+  public BatchSelect newPartitionedBatchSelect(
+      PreparedQuery preparedQuery,
+      List<ColumnGetter> getters,
+      int fetchRows,
+      int queryTimeout,
+      BatchTransactionId txnId,
+      List<Partition> partitions)
+      throws SQLException {
+    PreparedStatement stmt = prepareStatement(preparedQuery, getters, fetchRows, queryTimeout);
+    return new ParallelReadBatchSelect(client.newParallelRead(stmt, txnId, partitions));
+  }
+
+  private PreparedStatement prepareStatement(
+      PreparedQuery preparedQuery, List<ColumnGetter> getters, int fetchRows, int queryTimeout)
+      throws SQLException {
     String query = preparedQuery.getQuery();
     if (useEmulator) {
       query = "@{spanner_emulator.disable_query_partitionability_check=true}\n" + query;
@@ -74,18 +303,11 @@ public class SpannerJdbcInputConnection extends JdbcInputConnection {
       logger.info("Parameters: {}", params);
       prepareParameters(stmt, getters, params);
     }
-    try {
-      return new ParallelReadBatchSelect(client.newParallelRead(stmt));
-    } catch (SpannerException ex) {
-      String nonDistributedUnionQueryMessage =
-          "Query is not root partitionable since it does not have a DistributedUnion at the root. Please run EXPLAIN for query plan details.";
-      if (ex.getMessage().contains(nonDistributedUnionQueryMessage)) {
-        stmt.close();
-        logger.info("Do not use parallel query because {}", nonDistributedUnionQueryMessage, ex);
-        return super.newBatchSelect(preparedQuery, getters, fetchRows, queryTimeout);
-      }
-      throw ex;
-    }
+    return stmt;
+  }
+
+  private boolean isNotRootPartitionable(SpannerException ex) {
+    return ex.getMessage() != null && ex.getMessage().contains(NON_DISTRIBUTED_UNION_QUERY_MESSAGE);
   }
 
   public class ParallelReadBatchSelect implements BatchSelect {
@@ -100,6 +322,23 @@ public class SpannerJdbcInputConnection extends JdbcInputConnection {
       return cursor.fetchAsJdbcResultSet();
     }
 
+    public com.google.cloud.spanner.ResultSet fetchResultSet() {
+      return cursor.fetch();
+    }
+
+    // NOTE: Returns the ResultSet that replaces the one that failed with the error.
+    public ResultSet retry(SpannerException error) {
+      return cursor.retryAsJdbcResultSet(error);
+    }
+
+    public com.google.cloud.spanner.ResultSet retryResultSet(SpannerException error) {
+      return cursor.retry(error);
+    }
+
+    public ReadMetrics.Summary summarizeMetrics() {
+      return cursor.summarizeMetrics();
+    }
+
     @Override
     public void close() throws SQLException {
       cursor.close();
@@ -1,24 +1,23 @@
 package org.embulk.input.spanner.jdbc.getter;
 
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.NullNode;
 import java.math.BigDecimal;
 import java.sql.Array;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
+import java.util.Base64;
 import org.embulk.input.jdbc.getter.AbstractColumnGetter;
 import org.embulk.spi.Column;
 import org.embulk.spi.PageBuilder;
 import org.embulk.spi.type.Type;
-import org.embulk.util.json.JsonParseException;
-import org.embulk.util.json.JsonParser;
 import org.msgpack.value.Value;
+import org.msgpack.value.ValueFactory;
 
 public class ArrayColumnGetter extends AbstractColumnGetter {
   protected Array value;
 
-  protected final JsonParser jsonParser = new JsonParser();
+  // NOTE: The base type is the same for all the rows of a column, so it is resolved once.
+  private Integer baseType = null;
 
   public ArrayColumnGetter(PageBuilder to, Type toType) {
     super(to, toType);
@@ -29,51 +28,69 @@ public class ArrayColumnGetter extends AbstractColumnGetter {
     value = from.getArray(fromIndex);
   }
 
-  private ArrayNode buildJsonArray(Object[] elements) throws SQLException {
-    ArrayNode arrayNode = jsonNodeFactory.arrayNode();
-    for (Object v : elements) {
+  private Value buildArrayValue(Object[] elements) throws SQLException {
+    Value[] values = new Value[elements.length];
+    for (int i = 0; i < elements.length; i++) {
+      Object v = elements[i];
       if (v == null) {
-        arrayNode.add(NullNode.getInstance());
-        continue;
-      }
-      if (v.getClass().isArray()) {
-        arrayNode.add(buildJsonArray((Object[]) v));
+        values[i] = ValueFactory.newNil();
+      } else if (v instanceof byte[]) {
+        // NOTE: BYTES elements are base64 strings as in the JSON of Spanner.
+        values[i] = ValueFactory.newString(Base64.getEncoder().encodeToString((byte[]) v));
+      } else if (v.getClass().isArray()) {
+        values[i] = buildArrayValue((Object[]) v);
       } else {
-        switch (value.getBaseType()) {
-          case Types.TINYINT:
-          case Types.SMALLINT:
-          case Types.INTEGER:
-          case Types.BIGINT:
-            arrayNode.add(jsonNodeFactory.numberNode(((Number) v).longValue()));
-            break;
-          case Types.FLOAT:
-          case Types.REAL:
-          case Types.DOUBLE:
-            arrayNode.add(jsonNodeFactory.numberNode(((Number) v).doubleValue()));
-            break;
-          case Types.BOOLEAN:
-          case Types.BIT: // JDBC BIT is boolean, unlike SQL-92
-            arrayNode.add(jsonNodeFactory.booleanNode((Boolean) v));
-            break;
-          case Types.CHAR:
-          case Types.VARCHAR:
-          case Types.LONGVARCHAR:
-          case Types.CLOB:
-          case Types.NCHAR:
-          case Types.NVARCHAR:
-          case Types.LONGNVARCHAR:
-            arrayNode.add(jsonNodeFactory.textNode((String) v));
-            break;
-          case Types.DECIMAL:
-          case Types.NUMERIC:
-            arrayNode.add(jsonNodeFactory.numberNode((BigDecimal) v));
-            break;
-          default:
-            arrayNode.add(jsonNodeFactory.textNode(v.toString()));
-        }
+        values[i] = buildElementValue(v);
       }
     }
-    return arrayNode;
+    return ValueFactory.newArray(values, true);
+  }
+
+  private Value buildElementValue(Object v) throws SQLException {
+    if (baseType == null) {
+      baseType = value.getBaseType();
+    }
+    switch (baseType) {
+      case Types.TINYINT:
+      case Types.SMALLINT:
+      case Types.INTEGER:
+      case Types.BIGINT:
+        return ValueFactory.newInteger(((Number) v).longValue());
+      case Types.FLOAT:
+      case Types.REAL:
+      case Types.DOUBLE:
+        return ValueFactory.newFloat(((Number) v).doubleValue());
+      case Types.BOOLEAN:
+      case Types.BIT: // JDBC BIT is boolean, unlike SQL-92
+        return ValueFactory.newBoolean((Boolean) v);
+      case Types.CHAR:
+      case Types.VARCHAR:
+      case Types.LONGVARCHAR:
+      case Types.CLOB:
+      case Types.NCHAR:
+      case Types.NVARCHAR:
+      case Types.LONGNVARCHAR:
+        return ValueFactory.newString((String) v);
+      case Types.DECIMAL:
+      case Types.NUMERIC:
+        return buildDecimalValue((BigDecimal) v);
+      default:
+        return ValueFactory.newString(v.toString());
+    }
+  }
+
+  // NOTE: Keep the same values as the ones that were parsed from the JSON text of Jackson, which
+  //       strips the trailing zeros of a decimal. So a decimal is an integer only when it has no
+  //       fraction part and no trailing zeros, such as 5 and 1.0, and 100 (1E+2) is a float.
+  static Value buildDecimalValue(BigDecimal v) {
+    if (v.signum() == 0) {
+      return ValueFactory.newInteger(0);
+    }
+    BigDecimal stripped = v.stripTrailingZeros();
+    if (stripped.scale() == 0) {
+      return ValueFactory.newInteger(stripped.toBigInteger());
+    }
+    return ValueFactory.newFloat(stripped.doubleValue());
   }
 
   @Override
@@ -84,9 +101,8 @@ public class ArrayColumnGetter extends AbstractColumnGetter {
   @Override
   public void jsonColumn(Column column) {
     try {
-      Value v = jsonParser.parse(buildJsonArray((Object[]) value.getArray()).toString());
-      to.setJson(column, v);
-    } catch (JsonParseException | SQLException | ClassCastException e) {
+      to.setJson(column, buildArrayValue((Object[]) value.getArray()));
+    } catch (SQLException | ClassCastException e) {
       super.jsonColumn(column);
     }
   }
@@ -0,0 +1,43 @@
+package org.embulk.input.spanner.jdbc.getter;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import org.embulk.input.jdbc.getter.AbstractColumnGetter;
+import org.embulk.input.spanner.getter.BytesEncoder;
+import org.embulk.spi.Column;
+import org.embulk.spi.PageBuilder;
+import org.embulk.spi.type.Type;
+import org.embulk.spi.type.Types;
+
+// NOTE: Reads BYTES by getBytes and encodes them by `bytes_format`, instead of getString that
+//       builds a base64 string through the driver.
+public class BytesColumnGetter extends AbstractColumnGetter {
+  protected byte[] value;
+
+  private final BytesEncoder encoder;
+
+  public BytesColumnGetter(PageBuilder to, Type toType, BytesEncoder encoder) {
+    super(to, toType);
+    this.encoder = encoder;
+  }
+
+  @Override
+  protected void fetch(ResultSet from, int fromIndex) throws SQLException {
+    value = from.getBytes(fromIndex);
+  }
+
+  @Override
+  protected Type getDefaultToType() {
+    return Types.STRING;
+  }
+
+  @Override
+  public void stringColumn(Column column) {
+    to.setString(column, encoder.encode(value));
+  }
+
+  @Override
+  public void jsonColumn(Column column) {
+    to.setJson(column, encoder.toJson(value));
+  }
+}
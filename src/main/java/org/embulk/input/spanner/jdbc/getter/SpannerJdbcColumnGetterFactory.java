@@ -3,13 +3,17 @@ package org.embulk.input.spanner.jdbc.getter;
 import java.sql.Types;
 import java.time.ZoneId;
 import java.util.Locale;
+import java.util.Optional;
 import org.embulk.input.jdbc.AbstractJdbcInputPlugin.PluginTask;
 import org.embulk.input.jdbc.JdbcColumn;
 import org.embulk.input.jdbc.JdbcColumnOption;
 import org.embulk.input.jdbc.JdbcInputConnection;
 import org.embulk.input.jdbc.getter.ColumnGetter;
 import org.embulk.input.jdbc.getter.ColumnGetterFactory;
+import org.embulk.input.jdbc.getter.StringColumnGetter;
 import org.embulk.input.jdbc.getter.TimestampWithTimeZoneIncrementalHandler;
+import org.embulk.input.spanner.SpannerInputPlugin;
+import org.embulk.input.spanner.getter.BytesEncoder;
 import org.embulk.spi.PageBuilder;
 
 public class SpannerJdbcColumnGetterFactory extends ColumnGetterFactory {
@@ -20,9 +24,24 @@ public class SpannerJdbcColumnGetterFactory extends ColumnGetterFactory {
   @Override
   public ColumnGetter newColumnGetter(
       JdbcInputConnection con, PluginTask task, JdbcColumn column, JdbcColumnOption option) {
+    Optional<SpannerInputPlugin.PluginTask> spannerTask = spannerTaskOf(task);
+    boolean isDefaultValueType = option.getValueType().equals("coalesce");
+    if (column.getTypeName().equalsIgnoreCase("json")
+        && isDefaultValueType
+        && spannerTask.map(SpannerInputPlugin.PluginTask::getJsonAsString).orElse(false)) {
+      return new StringColumnGetter(to, getToType(option));
+    }
     switch (column.getSqlType()) {
       case Types.ARRAY:
         return new ArrayColumnGetter(to, getToType(option));
+      case Types.BINARY:
+        Optional<String> bytesFormat =
+            spannerTask.flatMap(SpannerInputPlugin.PluginTask::getBytesFormat);
+        if (bytesFormat.isPresent() && isDefaultValueType) {
+          return new BytesColumnGetter(
+              to, getToType(option), new BytesEncoder(BytesEncoder.formatOf(bytesFormat.get())));
+        }
+        return super.newColumnGetter(con, task, column, option);
       case Types.TIMESTAMP:
         ColumnGetter getter = super.newColumnGetter(con, task, column, option);
         return new TimestampWithTimeZoneIncrementalHandler(getter);
@@ -31,6 +50,14 @@ public class SpannerJdbcColumnGetterFactory extends ColumnGetterFactory {
     }
   }
 
+  // NOTE: The options of this plugin, which are empty when the task is not given.
+  private static Optional<SpannerInputPlugin.PluginTask> spannerTaskOf(PluginTask task) {
+    if (task instanceof SpannerInputPlugin.PluginTask) {
+      return Optional.of((SpannerInputPlugin.PluginTask) task);
+    }
+    return Optional.empty();
+  }
+
   @Override
   protected String sqlTypeToValueType(JdbcColumn column, int sqlType) {
     // ref. https://cloud.google.com/spanner/docs/data-types
@@ -0,0 +1,139 @@
+package org.embulk.input.spanner;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.google.cloud.spanner.Spanner;
+import com.google.cloud.spanner.SpannerOptions;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.MethodDescriptor;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.embulk.input.spanner.SpannerClient.ParallelRead;
+import org.embulk.input.spanner.extension.spanner.SpannerExtension;
+import org.embulk.input.spanner.extension.spanner.SpannerExtension.Query;
+import org.embulk.input.spanner.extension.spanner.SpannerExtension.SetupQueries;
+import org.embulk.input.spanner.extension.spanner.SpannerExtension.TableName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+public class TestSpannerClient {
+
+  static final String TEST_PROJECT = "test-project";
+  static final String TEST_INSTANCE = "test-instance";
+  static final String TEST_DATABASE = "test-database";
+
+  static final String EXECUTE_STREAMING_SQL = "google.spanner.v1.Spanner/ExecuteStreamingSql";
+
+  @RegisterExtension
+  static SpannerExtension spanner =
+      SpannerExtension.builder()
+          .projectId(TEST_PROJECT)
+          .instanceId(TEST_INSTANCE)
+          .databaseId(TEST_DATABASE)
+          .autoConfigEmulator(true)
+          .build();
+
+  static class CountingInterceptor implements ClientInterceptor {
+    final Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+
+    @Override
+    public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(
+        MethodDescriptor<ReqT, RespT> method, CallOptions callOptions, Channel next) {
+      calls.computeIfAbsent(method.getFullMethodName(), k -> new AtomicInteger()).incrementAndGet();
+      return next.newCall(method, callOptions);
+    }
+
+    int count(String fullMethodName) {
+      return calls.getOrDefault(fullMethodName, new AtomicInteger()).get();
+    }
+  }
+
+  static Connection newJdbcConnection() throws Exception {
+    Properties props = new Properties();
+    props.setProperty("autoConfigEmulator", "true");
+    props.setProperty("usePlainText", "true");
+    props.setProperty("readonly", "true");
+    return DriverManager.getConnection(
+        String.format(
+            "jdbc:cloudspanner:/projects/%s/instances/%s/databases/%s",
+            TEST_PROJECT, TEST_INSTANCE, TEST_DATABASE),
+        props);
+  }
+
+  static Spanner newSpanner(ClientInterceptor interceptor) {
+    return SpannerOptions.newBuilder()
+        .setProjectId(TEST_PROJECT)
+        .setEmulatorHost("localhost:9010")
+        .setInterceptorProvider(() -> Collections.singletonList(interceptor))
+        .build()
+        .getService();
+  }
+
+  @Test
+  @SetupQueries({
+    @Query("create table %s (v int64) primary key(v)"),
+    @Query("insert into %s (v) VALUES (1), (2), (3), (4), (5), (6), (7), (8), (9), (10)")
+  })
+  public void testExecuteEachPartitionOnce(@TableName String tableName) throws Exception {
+    CountingInterceptor interceptor = new CountingInterceptor();
+    try (Connection con = newJdbcConnection();
+        SpannerClient client =
+            new SpannerClient(newSpanner(interceptor), TEST_PROJECT, TEST_INSTANCE, TEST_DATABASE);
+        PreparedStatement stmt =
+            con.prepareStatement(
+                "@{spanner_emulator.disable_query_partitionability_check=true}\n"
+                    + "select v from "
+                    + tableName);
+        ParallelRead read = client.newParallelRead(stmt)) {
+      long rows = 0;
+      com.google.cloud.spanner.ResultSet rs;
+      while ((rs = read.fetch()) != null) {
+        while (rs.next()) {
+          rows++;
+        }
+      }
+
+      assertEquals(10L, rows);
+      assertEquals(read.getPartitions().size(), interceptor.count(EXECUTE_STREAMING_SQL));
+    }
+  }
+
+  @Test
+  @SetupQueries({
+    @Query("create table %s (v int64, s string(max)) primary key(v)"),
+    @Query(
+        "insert into %s (v, s) VALUES (1, 'a'), (2, 'b'), (3, 'c'), (4, 'd'), (5, 'e'), (6, 'f')")
+  })
+  public void testPartitionMetrics(@TableName String tableName) throws Exception {
+    try (Connection con = newJdbcConnection();
+        SpannerClient client =
+            new SpannerClient(
+                newSpanner(new CountingInterceptor()), TEST_PROJECT, TEST_INSTANCE, TEST_DATABASE);
+        PreparedStatement stmt =
+            con.prepareStatement(
+                "@{spanner_emulator.disable_query_partitionability_check=true}\n"
+                    + "select v, s from "
+                    + tableName);
+        ParallelRead read = client.newParallelRead(stmt)) {
+      com.google.cloud.spanner.ResultSet rs;
+      while ((rs = read.fetch()) != null) {
+        while (rs.next()) {}
+      }
+
+      ReadMetrics.Summary summary = read.getMetrics().summarize();
+      assertEquals(read.getPartitions().size(), summary.getPartitions());
+      assertEquals(6L, summary.getRows());
+      assertEquals(
+          6L, read.getMetrics().getPartitions().stream().mapToLong(m -> m.getRows()).sum());
+    }
+  }
+}
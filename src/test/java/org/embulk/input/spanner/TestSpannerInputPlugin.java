@@ -1,6 +1,7 @@
 package org.embulk.input.spanner;
 
 import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertInstanceOf;
@@ -11,6 +12,7 @@ import java.time.Instant;
 import java.util.stream.IntStream;
 import java.util.stream.LongStream;
 import java.util.stream.Stream;
+import org.embulk.config.ConfigDiff;
 import org.embulk.config.ConfigSource;
 import org.embulk.input.spanner.extension.embulk.EmbulkExtension;
 import org.embulk.input.spanner.extension.embulk.EmbulkTester;
@@ -137,6 +139,32 @@ public class TestSpannerInputPlugin {
                 }));
   }
 
+  @Test
+  @SetupQueries({
+    @Query("create table %s (v bytes(max)) primary key(v)"),
+    @Query("insert into %s (v) VALUES (FROM_BASE64('/+A='))")
+  })
+  public void testByteWithBytesFormat(EmbulkTester embulkTester, @TableName String tableName)
+      throws Throwable {
+    ConfigSource inConfig =
+        embulkTester.loadFromYamlString(
+            String.join(
+                "\n",
+                minimumConfigYaml,
+                "table: " + tableName,
+                "order_by: v asc",
+                "bytes_format: hex",
+                ""));
+
+    assertDoesNotThrow(
+        () ->
+            embulkTester.runInput(
+                inConfig,
+                (rows) -> {
+                  assertEquals("ffe0", rows.get(0)[0]);
+                }));
+  }
+
   @Test
   @SetupQueries({
     @Query("create table %s (v bytes(max)) primary key(v)"),
@@ -163,6 +191,31 @@ public class TestSpannerInputPlugin {
                 }));
   }
 
+  @Test
+  @SetupQueries({
+    @Query("create table %s (v int64, s string(max), b bytes(max)) primary key(v)"),
+    @Query("insert into %s (v, s, b) VALUES (1, 'a', FROM_BASE64('/+A='))")
+  })
+  public void testExcludeColumns(EmbulkTester embulkTester, @TableName String tableName)
+      throws Throwable {
+    // NOTE: The BYTES column is not supported without column_options, so it must not be read.
+    ConfigSource inConfig =
+        embulkTester.loadFromYamlString(
+            String.join(
+                "\n",
+                minimumConfigYaml,
+                "table: " + tableName,
+                "exclude_columns: [b]",
+                ""));
+
+    embulkTester.runInput(
+        inConfig,
+        (rows) -> {
+          assertEquals(1, rows.size());
+          assertArrayEquals(new Object[] {1L, "a"}, rows.get(0));
+        });
+  }
+
   @Test
   @SetupQueries({
     @Query("create table %s (v DATE) primary key(v)"),
@@ -421,4 +474,155 @@ public class TestSpannerInputPlugin {
                       .mapToObj(i -> () -> assertEquals(expected[i], rows.get(i)[0]))));
         });
   }
+
+  @Test
+  @SetupQueries({
+    @Query("create table %s (i int64, v array<numeric>) primary key(i)"),
+    @Query(
+        "insert into %s (i, v) VALUES"
+            + " (1, [NUMERIC '100', NUMERIC '1.50', NUMERIC '0', NUMERIC '5'])")
+  })
+  public void testArrayOfNumeric(EmbulkTester embulkTester, @TableName String tableName)
+      throws Throwable {
+    ConfigSource inConfig =
+        embulkTester.loadFromYamlString(
+            String.join("\n", minimumConfigYaml, "table: " + tableName, "select: v", ""));
+
+    // NOTE: The trailing zeros are stripped, so 100 is a float as well as 1.5.
+    embulkTester.runInput(
+        inConfig,
+        (rows) ->
+            assertEquals(
+                ValueFactory.newArray(
+                    ValueFactory.newFloat(100.0),
+                    ValueFactory.newFloat(1.5),
+                    ValueFactory.newInteger(0L),
+                    ValueFactory.newInteger(5L)),
+                rows.get(0)[0]));
+  }
+
+  @Test
+  @SetupQueries({
+    @Query("create table %s (i int64, v array<bytes(max)>) primary key(i)"),
+    @Query("insert into %s (i, v) VALUES (1, [FROM_BASE64('/+A='), NULL])")
+  })
+  public void testArrayOfBytes(EmbulkTester embulkTester, @TableName String tableName)
+      throws Throwable {
+    ConfigSource inConfig =
+        embulkTester.loadFromYamlString(
+            String.join("\n", minimumConfigYaml, "table: " + tableName, "select: v", ""));
+
+    embulkTester.runInput(
+        inConfig,
+        (rows) ->
+            assertEquals(
+                ValueFactory.newArray(ValueFactory.newString("/+A="), ValueFactory.newNil()),
+                rows.get(0)[0]));
+  }
+
+  @Test
+  @SetupQueries({
+    @Query("create table %s (v int64) primary key(v)"),
+    @Query("insert into %s (v) VALUES (1), (2), (3), (4), (5), (6), (7), (8), (9), (10)")
+  })
+  public void testDistributePartitions(EmbulkTester embulkTester, @TableName String tableName)
+      throws Throwable {
+    ConfigSource inConfig =
+        embulkTester.loadFromYamlString(
+            String.join(
+                "\n",
+                minimumConfigYaml,
+                "table: " + tableName,
+                "distribute_partitions: true",
+                "max_tasks: 3",
+                ""));
+
+    embulkTester.runInput(
+        inConfig,
+        (rows) -> {
+          long[] expected = LongStream.rangeClosed(1L, 10L).toArray();
+          long[] actual = rows.stream().mapToLong(r -> (Long) r[0]).sorted().toArray();
+          assertArrayEquals(expected, actual);
+        });
+  }
+
+  @Test
+  @SetupQueries({
+    @Query("create table %s (v int64) primary key(v)"),
+    @Query("insert into %s (v) VALUES (1), (2), (3), (4), (5), (6), (7), (8), (9), (10)")
+  })
+  public void testPartitionConcurrency(EmbulkTester embulkTester, @TableName String tableName)
+      throws Throwable {
+    ConfigSource inConfig =
+        embulkTester.loadFromYamlString(
+            String.join(
+                "\n", minimumConfigYaml, "table: " + tableName, "partition_concurrency: 4", ""));
+
+    embulkTester.runInput(
+        inConfig,
+        (rows) -> {
+          long[] expected = LongStream.rangeClosed(1L, 10L).toArray();
+          long[] actual = rows.stream().mapToLong(r -> (Long) r[0]).sorted().toArray();
+          assertArrayEquals(expected, actual);
+        });
+  }
+
+  @Test
+  @SetupQueries({
+    @Query("create table %s (id int64, v int64) primary key(id)"),
+    @Query(
+        "insert into %s (id, v) VALUES (1, 3), (2, 1), (3, 4), (4, 1), (5, 5), (6, 9), (7, 2),"
+            + " (8, 6), (9, 5), (10, 3)")
+  })
+  public void testPartitionedIncremental(EmbulkTester embulkTester, @TableName String tableName)
+      throws Throwable {
+    String config =
+        String.join(
+            "\n",
+            minimumConfigYaml,
+            "table: " + tableName,
+            "select: id, v",
+            "incremental: true",
+            "incremental_columns: [v, id]",
+            "last_record: [1, 4]",
+            "");
+    ConfigDiff ordered =
+        embulkTester.runInput(embulkTester.loadFromYamlString(config), (rows) -> {});
+    ConfigDiff partitioned =
+        embulkTester.runInput(
+            embulkTester.loadFromYamlString(
+                String.join(
+                    "\n", config, "partitioned_incremental: true", "partition_concurrency: 2", "")),
+            (rows) -> {
+              long[] expected = LongStream.of(1L, 3L, 5L, 6L, 7L, 8L, 9L, 10L).toArray();
+              long[] actual = rows.stream().mapToLong(r -> (Long) r[0]).sorted().toArray();
+              assertArrayEquals(expected, actual);
+            });
+
+    assertEquals(ordered, partitioned);
+  }
+
+  @Test
+  @SetupQueries({
+    @Query("create table %s (id int64, v int64) primary key(id)"),
+    @Query("insert into %s (id, v) VALUES (1, 1), (2, 2)")
+  })
+  public void testAfterSelect(EmbulkTester embulkTester, @TableName String tableName)
+      throws Throwable {
+    String config =
+        String.join("\n", minimumConfigYaml, "table: " + tableName, "select: v", "order_by: v");
+    embulkTester.runInput(
+        embulkTester.loadFromYamlString(
+            String.join(
+                "\n", config, "after_select: UPDATE " + tableName + " SET v = v + 10 WHERE true")),
+        (rows) ->
+            assertArrayEquals(
+                new long[] {1L, 2L}, rows.stream().mapToLong(r -> (Long) r[0]).toArray()));
+
+    embulkTester.runInput(
+        embulkTester.loadFromYamlString(config),
+        (rows) ->
+            assertArrayEquals(
+                new long[] {11L, 12L}, rows.stream().mapToLong(r -> (Long) r[0]).toArray()));
+  }
 }
@@ -0,0 +1,747 @@
+package org.embulk.input.spanner;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.spanner.Statement;
+import com.google.cloud.spanner.Value;
+import com.google.protobuf.Struct;
+import com.google.spanner.v1.BatchCreateSessionsRequest;
+import com.google.spanner.v1.DeleteSessionRequest;
+import com.google.spanner.v1.ExecuteSqlRequest;
+import com.google.spanner.v1.KeySet;
+import com.google.spanner.v1.PartitionReadRequest;
+import com.google.spanner.v1.ReadRequest;
+import com.google.spanner.v1.RequestOptions;
+import com.google.spanner.v1.TypeCode;
+import io.grpc.Status;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import org.embulk.config.ConfigDiff;
+import org.embulk.config.ConfigSource;
+import org.embulk.input.spanner.extension.embulk.EmbulkExtension;
+import org.embulk.input.spanner.extension.embulk.EmbulkTester;
+import org.embulk.input.spanner.extension.spanner.MockSpannerExtension;
+import org.embulk.input.spanner.extension.spanner.MockSpannerServer;
+import org.embulk.input.spanner.extension.spanner.MockSpannerServer.QueryResult;
+import org.embulk.input.spanner.jdbc.SpannerJdbcInputConnection;
+import org.embulk.spi.InputPlugin;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class TestSpannerInputPluginWithMockServer {
+
+  static final String TEST_PROJECT = "test-project";
+  static final String TEST_INSTANCE = "test-instance";
+  static final String TEST_DATABASE = "test-database";
+
+  static final String QUERY = "SELECT v FROM numbers";
+
+  @RegisterExtension
+  static EmbulkExtension embulk =
+      EmbulkExtension.builder()
+          .registerPlugin(InputPlugin.class, "spanner", SpannerInputPlugin.class)
+          .build();
+
+  @RegisterExtension static MockSpannerExtension spanner = new MockSpannerExtension();
+
+  static String configYaml(String... lines) {
+    return String.join(
+        "\n",
+        spanner.connectionConfigYaml(TEST_PROJECT, TEST_INSTANCE, TEST_DATABASE),
+        "query: " + QUERY,
+        String.join("\n", lines),
+        "");
+  }
+
+  static long[] sortedValues(List<Object[]> rows) {
+    return rows.stream().mapToLong(r -> (Long) r[0]).sorted().toArray();
+  }
+
+  static long partitionExecutions(MockSpannerServer server) {
+    return server.getRequests(ExecuteSqlRequest.class).stream()
+        .filter(r -> !r.getPartitionToken().isEmpty())
+        .count();
+  }
+
+  static long keyRangeExecutions(MockSpannerServer server) {
+    return server.getRequests(ExecuteSqlRequest.class).stream()
+        .filter(r -> r.getSql().contains(KeyRangeSharding.SUBQUERY_ALIAS))
+        .count();
+  }
+
+  static final String CHANGE_STREAM_START = "2022-03-12T00:00:00Z";
+
+  static final com.google.spanner.v1.Type CHANGE_RECORD_TYPE =
+      MockSpannerServer.arrayOfStruct(
+          MockSpannerServer.field(
+              "data_change_record",
+              MockSpannerServer.arrayOfStruct(
+                  MockSpannerServer.field("commit_timestamp", TypeCode.TIMESTAMP),
+                  MockSpannerServer.field("record_sequence", TypeCode.STRING),
+                  MockSpannerServer.field("server_transaction_id", TypeCode.STRING),
+                  MockSpannerServer.field("table_name", TypeCode.STRING),
+                  MockSpannerServer.field(
+                      "mods",
+                      MockSpannerServer.arrayOfStruct(
+                          MockSpannerServer.field("keys", TypeCode.JSON),
+                          MockSpannerServer.field("new_values", TypeCode.JSON),
+                          MockSpannerServer.field("old_values", TypeCode.JSON))),
+                  MockSpannerServer.field("mod_type", TypeCode.STRING),
+                  MockSpannerServer.field("value_capture_type", TypeCode.STRING))),
+          MockSpannerServer.field(
+              "heartbeat_record",
+              MockSpannerServer.arrayOfStruct(
+                  MockSpannerServer.field("timestamp", TypeCode.TIMESTAMP))),
+          MockSpannerServer.field(
+              "child_partitions_record",
+              MockSpannerServer.arrayOfStruct(
+                  MockSpannerServer.field("start_timestamp", TypeCode.TIMESTAMP),
+                  MockSpannerServer.field("record_sequence", TypeCode.STRING),
+                  MockSpannerServer.field(
+                      "child_partitions",
+                      MockSpannerServer.arrayOfStruct(
+                          MockSpannerServer.field("token", TypeCode.STRING))))));
+
+  // NOTE: A data change record of the transaction "tx<id>" that inserted the rows of the ids.
+  static com.google.protobuf.Value dataChangeRecord(String id, long... ids) {
+    List<com.google.protobuf.Value> mods =
+        LongStream.of(ids)
+            .mapToObj(
+                v ->
+                    MockSpannerServer.listValue(
+                        Arrays.asList(
+                            MockSpannerServer.stringValue("{\"v\":" + v + "}"),
+                            MockSpannerServer.stringValue("{}"),
+                            MockSpannerServer.stringValue("{}"))))
+            .collect(Collectors.toList());
+    return MockSpannerServer.listValue(
+        Arrays.asList(
+            MockSpannerServer.stringValue(CHANGE_STREAM_START),
+            MockSpannerServer.stringValue(id),
+            MockSpannerServer.stringValue("tx" + id),
+            MockSpannerServer.stringValue("numbers"),
+            MockSpannerServer.listValue(mods),
+            MockSpannerServer.stringValue("INSERT"),
+            MockSpannerServer.stringValue("NEW_VALUES")));
+  }
+
+  static com.google.protobuf.Value childPartitionsRecord(String... tokens) {
+    return MockSpannerServer.listValue(
+        Arrays.asList(
+            MockSpannerServer.stringValue(CHANGE_STREAM_START),
+            MockSpannerServer.stringValue("00000001"),
+            MockSpannerServer.listValue(
+                Arrays.stream(tokens)
+                    .map(
+                        t ->
+                            MockSpannerServer.listValue(
+                                Collections.singletonList(MockSpannerServer.stringValue(t))))
+                    .collect(Collectors.toList()))));
+  }
+
+  // NOTE: A row of a change stream query that has a ChangeRecord of the records.
+  static QueryResult changeRecordOf(
+      List<com.google.protobuf.Value> dataChangeRecords,
+      List<com.google.protobuf.Value> childPartitionsRecords) {
+    com.google.protobuf.Value changeRecord =
+        MockSpannerServer.listValue(
+            Arrays.asList(
+                MockSpannerServer.listValue(dataChangeRecords),
+                MockSpannerServer.listValue(Collections.emptyList()),
+                MockSpannerServer.listValue(childPartitionsRecords)));
+    return QueryResult.of(
+        Collections.singletonList(MockSpannerServer.field("ChangeRecord", CHANGE_RECORD_TYPE)),
+        1,
+        i -> Collections.singletonList(MockSpannerServer.listValue(Arrays.asList(changeRecord))));
+  }
+
+  // NOTE: The rows of `SELECT v FROM numbers` in the key range of the parameters.
+  static QueryResult keyRangeOf(Struct params, long rows) {
+    long lo = 0L;
+    long hi = rows;
+    if (params.containsFields(KeyRangeSharding.LOWER_BOUND_PARAM)) {
+      lo =
+          Long.parseLong(
+              params.getFieldsOrThrow(KeyRangeSharding.LOWER_BOUND_PARAM).getStringValue());
+    }
+    if (params.containsFields(KeyRangeSharding.UPPER_BOUND_PARAM)) {
+      hi =
+          Long.parseLong(
+              params.getFieldsOrThrow(KeyRangeSharding.UPPER_BOUND_PARAM).getStringValue());
+    }
+    long from = lo;
+    return QueryResult.of(
+        Collections.singletonList(MockSpannerServer.field("v", TypeCode.INT64)),
+        hi - lo,
+        i -> Collections.singletonList(MockSpannerServer.int64Value(from + i)));
+  }
+
+  @Test
+  public void testReadPartitions(EmbulkTester embulkTester, MockSpannerServer server)
+      throws Throwable {
+    server.putQuery(QUERY, QueryResult.int64Sequence("v", 10_000));
+    server.setPartitions(8);
+    ConfigSource inConfig = embulkTester.loadFromYamlString(configYaml());
+
+    embulkTester.runInput(
+        inConfig,
+        (rows) -> assertArrayEquals(LongStream.range(0L, 10_000L).toArray(), sortedValues(rows)));
+    assertEquals(8L, partitionExecutions(server));
+  }
+
+  @Test
+  public void testDistributePartitions(EmbulkTester embulkTester, MockSpannerServer server)
+      throws Throwable {
+    server.putQuery(QUERY, QueryResult.int64Sequence("v", 10_000));
+    server.setPartitions(8);
+    ConfigSource inConfig =
+        embulkTester.loadFromYamlString(
+            configYaml("distribute_partitions: true", "max_tasks: 3", "partition_concurrency: 2"));
+
+    embulkTester.runInput(
+        inConfig,
+        (rows) -> assertArrayEquals(LongStream.range(0L, 10_000L).toArray(), sortedValues(rows)));
+    assertEquals(8L, partitionExecutions(server));
+  }
+
+  @Test
+  public void testRetryUnavailablePartition(EmbulkTester embulkTester, MockSpannerServer server)
+      throws Throwable {
+    server.putQuery(QUERY, QueryResult.int64Sequence("v", 1_000));
+    server.setPartitions(4);
+    server.setChunkRows(100);
+    server.addError(
+        MockSpannerServer.EXECUTE_STREAMING_SQL,
+        r -> !((ExecuteSqlRequest) r).getPartitionToken().isEmpty(),
+        Status.UNAVAILABLE);
+    ConfigSource inConfig = embulkTester.loadFromYamlString(configYaml());
+
+    // NOTE: The client retries the stream of the partition, and no rows are lost or duplicated.
+    embulkTester.runInput(
+        inConfig,
+        (rows) -> assertArrayEquals(LongStream.range(0L, 1_000L).toArray(), sortedValues(rows)));
+    assertEquals(5L, partitionExecutions(server));
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = {1, 2})
+  public void testRetryFailedPartition(
+      int partitionConcurrency, EmbulkTester embulkTester, MockSpannerServer server)
+      throws Throwable {
+    server.putQuery(QUERY, QueryResult.int64Sequence("v", 8_000));
+    server.setPartitions(4);
+    server.setChunkRows(500);
+    // NOTE: The client does not resume the stream on DEADLINE_EXCEEDED by itself.
+    server.addStreamError(
+        MockSpannerServer.EXECUTE_STREAMING_SQL,
+        r -> ((ExecuteSqlRequest) r).getPartitionToken().toStringUtf8().equals("1/4"),
+        1_500,
+        Status.DEADLINE_EXCEEDED);
+    ConfigSource inConfig =
+        embulkTester.loadFromYamlString(
+            configYaml(
+                "partition_concurrency: " + partitionConcurrency,
+                "partition_retry_backoff_millis: 10"));
+
+    // NOTE: The partition is executed again, and the rows that were read are skipped.
+    embulkTester.runInput(
+        inConfig,
+        (rows) -> assertArrayEquals(LongStream.range(0L, 8_000L).toArray(), sortedValues(rows)));
+    assertEquals(5L, partitionExecutions(server));
+  }
+
+  @Test
+  public void testErrorOfPartitionReader() {
+    // NOTE: An Error of a worker is thrown to the consumer instead of leaving it waiting.
+    try (PartitionPrefetcher prefetcher =
+        new PartitionPrefetcher(
+            4,
+            i -> {
+              throw new OutOfMemoryError("partition " + i);
+            },
+            2,
+            new ReadMetrics(),
+            PartitionRetryPolicy.fromReadOptions(ReadOptions.defaults()),
+            Optional.empty())) {
+      assertTimeoutPreemptively(
+          Duration.ofSeconds(10), () -> assertThrows(OutOfMemoryError.class, prefetcher::fetch));
+    }
+  }
+
+  @Test
+  public void testMaxRowsPerSecond(EmbulkTester embulkTester, MockSpannerServer server)
+      throws Throwable {
+    server.putQuery(QUERY, QueryResult.int64Sequence("v", 3_000));
+    server.setPartitions(4);
+    ConfigSource inConfig =
+        embulkTester.loadFromYamlString(
+            configYaml(
+                "max_rows_per_second: 1000",
+                "partition_concurrency: 4",
+                "report_partition_metrics: true"));
+
+    // NOTE: The rows of the first second are a burst, and the other 2000 rows take 2 seconds.
+    long start = System.nanoTime();
+    embulkTester.runInput(
+        inConfig,
+        (rows) -> assertArrayEquals(LongStream.range(0L, 3_000L).toArray(), sortedValues(rows)));
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    assertTrue(elapsedMillis >= 1_900L, "elapsed: " + elapsedMillis + " ms");
+    long throttleMillis =
+        embulkTester
+            .getTaskReports()
+            .get(0)
+            .getNested("partition_metrics")
+            .get(Long.class, "throttle_millis");
+    assertTrue(throttleMillis > 0L, "throttle_millis: " + throttleMillis);
+  }
+
+  @Test
+  public void testResumeFailedPartitions(EmbulkTester embulkTester, MockSpannerServer server)
+      throws Throwable {
+    server.putQuery(QUERY, QueryResult.int64Sequence("v", 1_000));
+    server.setPartitions(4);
+    server.addError(
+        MockSpannerServer.EXECUTE_STREAMING_SQL,
+        r -> ((ExecuteSqlRequest) r).getPartitionToken().toStringUtf8().equals("2/4"),
+        Status.PERMISSION_DENIED);
+    ConfigSource inConfig =
+        embulkTester.loadFromYamlString(configYaml("distribute_partitions: true"));
+
+    embulkTester.runInputWithResume(
+        inConfig,
+        (rows) -> assertArrayEquals(LongStream.range(0L, 1_000L).toArray(), sortedValues(rows)));
+    // NOTE: Only the failed partition is read again in the same batch transaction, whose session
+    //       is deleted after the resumed tasks succeed.
+    List<ExecuteSqlRequest> executions =
+        server.getRequests(ExecuteSqlRequest.class).stream()
+            .filter(r -> !r.getPartitionToken().isEmpty())
+            .collect(Collectors.toList());
+    assertEquals(5, executions.size());
+    assertEquals(1L, executions.stream().map(r -> r.getTransaction().getId()).distinct().count());
+    String session = executions.get(0).getSession();
+    assertEquals(
+        1L,
+        server.getRequests(DeleteSessionRequest.class).stream()
+            .filter(r -> r.getName().equals(session))
+            .count());
+  }
+
+  @Test
+  public void testShareSessionPool(EmbulkTester embulkTester, MockSpannerServer server)
+      throws Throwable {
+    server.putQuery(QUERY, QueryResult.int64Sequence("v", 1_000));
+    // NOTE: The read timestamp of `max_staleness` is chosen by a query in the session pool.
+    server.putQuery("SELECT 1", QueryResult.int64Sequence("x", 1));
+    server.setPartitions(4);
+    ConfigSource inConfig =
+        embulkTester.loadFromYamlString(
+            configYaml("max_staleness: 10", "num_channels: 2", "min_sessions: 4"));
+
+    embulkTester.runInput(
+        inConfig,
+        (rows) -> assertArrayEquals(LongStream.range(0L, 1_000L).toArray(), sortedValues(rows)));
+    // NOTE: The JDBC driver and the client share one session pool of `min_sessions`.
+    assertEquals(
+        4,
+        server.getRequests(BatchCreateSessionsRequest.class).stream()
+            .mapToInt(BatchCreateSessionsRequest::getSessionCount)
+            .sum());
+  }
+
+  @Test
+  public void testSchemaCache(
+      EmbulkTester embulkTester, MockSpannerServer server, @TempDir Path dir) throws Throwable {
+    String schemaQuery =
+        Subquery.wrap(QUERY, SpannerJdbcInputConnection.SCHEMA_SUBQUERY_ALIAS) + " LIMIT 0";
+    server.putQuery(QUERY, QueryResult.int64Sequence("v", 1_000));
+    server.putQuery(schemaQuery, QueryResult.int64Sequence("v", 0));
+    server.putQuery(
+        SchemaCache.COLUMNS_QUERY,
+        QueryResult.of(
+            Arrays.asList(
+                MockSpannerServer.field("TABLE_SCHEMA", TypeCode.STRING),
+                MockSpannerServer.field("TABLE_NAME", TypeCode.STRING),
+                MockSpannerServer.field("COLUMN_NAME", TypeCode.STRING),
+                MockSpannerServer.field("SPANNER_TYPE", TypeCode.STRING),
+                MockSpannerServer.field("IS_NULLABLE", TypeCode.STRING)),
+            1,
+            i ->
+                Arrays.asList(
+                    MockSpannerServer.stringValue(""),
+                    MockSpannerServer.stringValue("numbers"),
+                    MockSpannerServer.stringValue("v"),
+                    MockSpannerServer.stringValue("INT64"),
+                    MockSpannerServer.stringValue("NO"))));
+    ConfigSource inConfig =
+        embulkTester.loadFromYamlString(
+            configYaml("schema_cache_path: " + dir.resolve("schema.json")));
+
+    for (int i = 0; i < 2; i++) {
+      embulkTester.runInput(
+          inConfig,
+          (rows) ->
+              assertArrayEquals(LongStream.range(0L, 1_000L).toArray(), sortedValues(rows)));
+    }
+    // NOTE: The schema is read by the query limited to 0 rows once, and then read from the cache.
+    List<ExecuteSqlRequest> executions = server.getRequests(ExecuteSqlRequest.class);
+    assertEquals(1L, executions.stream().filter(r -> r.getSql().equals(schemaQuery)).count());
+    assertEquals(
+        0L,
+        executions.stream()
+            .filter(r -> r.getSql().equals(QUERY) && r.getPartitionToken().isEmpty())
+            .count());
+  }
+
+  @Test
+  public void testRpcPriorityAndRequestTag(EmbulkTester embulkTester, MockSpannerServer server)
+      throws Throwable {
+    server.putQuery(QUERY, QueryResult.int64Sequence("v", 1_000));
+    server.setPartitions(4);
+    ConfigSource inConfig =
+        embulkTester.loadFromYamlString(configYaml("rpc_priority: low", "request_tag: etl"));
+
+    embulkTester.runInput(
+        inConfig,
+        (rows) -> assertArrayEquals(LongStream.range(0L, 1_000L).toArray(), sortedValues(rows)));
+    List<ExecuteSqlRequest> executions =
+        server.getRequests(ExecuteSqlRequest.class).stream()
+            .filter(r -> !r.getPartitionToken().isEmpty())
+            .collect(Collectors.toList());
+    assertEquals(4, executions.size());
+    for (ExecuteSqlRequest r : executions) {
+      assertEquals(RequestOptions.Priority.PRIORITY_LOW, r.getRequestOptions().getPriority());
+      assertEquals("etl", r.getRequestOptions().getRequestTag());
+    }
+  }
+
+  @Test
+  public void testRpcPriorityAndRequestTagOfSingleStream(
+      EmbulkTester embulkTester, MockSpannerServer server) throws Throwable {
+    server.putQuery(QUERY, QueryResult.int64Sequence("v", 1_000).notRootPartitionable());
+    ConfigSource inConfig =
+        embulkTester.loadFromYamlString(configYaml("rpc_priority: low", "request_tag: etl"));
+
+    embulkTester.runInput(
+        inConfig,
+        (rows) -> assertArrayEquals(LongStream.range(0L, 1_000L).toArray(), sortedValues(rows)));
+    // NOTE: The JDBC driver reads the query that is not root partitionable.
+    List<ExecuteSqlRequest> executions =
+        server.getRequests(ExecuteSqlRequest.class).stream()
+            .filter(r -> r.getSql().endsWith(QUERY))
+            .filter(r -> r.getRequestOptions().getRequestTag().equals("etl"))
+            .collect(Collectors.toList());
+    assertEquals(1, executions.size());
+    assertEquals(
+        RequestOptions.Priority.PRIORITY_LOW, executions.get(0).getRequestOptions().getPriority());
+  }
+
+  @Test
+  public void testNotRootPartitionable(EmbulkTester embulkTester, MockSpannerServer server)
+      throws Throwable {
+    server.putQuery(QUERY, QueryResult.int64Sequence("v", 1_000).notRootPartitionable());
+    server.setPartitions(4);
+    ConfigSource inConfig = embulkTester.loadFromYamlString(configYaml());
+
+    embulkTester.runInput(
+        inConfig,
+        (rows) -> assertArrayEquals(LongStream.range(0L, 1_000L).toArray(), sortedValues(rows)));
+    assertEquals(0L, partitionExecutions(server));
+  }
+
+  @Test
+  public void testKeyRangeSharding(EmbulkTester embulkTester, MockSpannerServer server)
+      throws Throwable {
+    server.putQuery(QUERY, QueryResult.int64Sequence("v", 1_000).notRootPartitionable());
+    server.putQuery(
+        KeyRangeSharding.PRIMARY_KEY_QUERY,
+        QueryResult.of(
+            Collections.singletonList(MockSpannerServer.field("COLUMN_NAME", TypeCode.STRING)),
+            1,
+            i -> Collections.singletonList(MockSpannerServer.stringValue("v"))));
+    // NOTE: Every 10th key is sampled, so the boundaries of 4 ranges are 250, 500 and 750.
+    server.putQuery(
+        KeyRangeSharding.sampleQuery("numbers", "v", 4),
+        QueryResult.of(
+            Collections.singletonList(MockSpannerServer.field("v", TypeCode.INT64)),
+            100,
+            i -> Collections.singletonList(MockSpannerServer.int64Value(i * 10))));
+    List<Statement> keyRanges =
+        KeyRangeSharding.shard(
+            Statement.of(QUERY),
+            "v",
+            Arrays.asList(Value.int64(250), Value.int64(500), Value.int64(750)));
+    for (Statement keyRange : keyRanges) {
+      server.putQuery(keyRange.getSql(), params -> keyRangeOf(params, 1_000));
+    }
+    ConfigSource inConfig =
+        embulkTester.loadFromYamlString(
+            configYaml(
+                "key_range_shards: 4", "key_range_table: numbers", "partition_concurrency: 2"));
+
+    embulkTester.runInput(
+        inConfig,
+        (rows) -> assertArrayEquals(LongStream.range(0L, 1_000L).toArray(), sortedValues(rows)));
+    assertEquals(0L, partitionExecutions(server));
+    assertEquals(4L, keyRangeExecutions(server));
+  }
+
+  @Test
+  public void testKeyRangeShardingWithoutKeyColumn(
+      EmbulkTester embulkTester, MockSpannerServer server) throws Throwable {
+    // NOTE: The key column is not a column of the result, so the query is read by a single stream.
+    server.putQuery(QUERY, QueryResult.int64Sequence("v", 1_000).notRootPartitionable());
+    ConfigSource inConfig =
+        embulkTester.loadFromYamlString(
+            configYaml("key_range_shards: 4", "key_range_table: numbers", "key_range_column: id"));
+
+    embulkTester.runInput(
+        inConfig,
+        (rows) -> assertArrayEquals(LongStream.range(0L, 1_000L).toArray(), sortedValues(rows)));
+    assertEquals(0L, keyRangeExecutions(server));
+  }
+
+  @Test
+  public void testTableRead(EmbulkTester embulkTester, MockSpannerServer server) throws Throwable {
+    // NOTE: The schema is read by the query of the table.
+    server.putQuery("SELECT * FROM `numbers`", QueryResult.int64Sequence("v", 1_000));
+    server.putTable("numbers", QueryResult.int64Sequence("v", 1_000));
+    server.setPartitions(8);
+    ConfigSource inConfig =
+        embulkTester.loadFromYamlString(
+            String.join(
+                "\n",
+                spanner.connectionConfigYaml(TEST_PROJECT, TEST_INSTANCE, TEST_DATABASE),
+                "table: numbers",
+                "read_mode: table_read",
+                "index: numbers_by_v",
+                "key_ranges: [{start: [0], end: [1000]}, {start: [2000]}]",
+                "partition_concurrency: 2",
+                ""));
+
+    embulkTester.runInput(
+        inConfig,
+        (rows) -> assertArrayEquals(LongStream.range(0L, 1_000L).toArray(), sortedValues(rows)));
+    List<PartitionReadRequest> partitionReads = server.getRequests(PartitionReadRequest.class);
+    assertEquals(1, partitionReads.size());
+    PartitionReadRequest request = partitionReads.get(0);
+    assertEquals("numbers_by_v", request.getIndex());
+    assertEquals(Collections.singletonList("v"), request.getColumnsList());
+    KeySet keySet = request.getKeySet();
+    assertEquals(2, keySet.getRangesCount());
+    assertEquals("0", keySet.getRanges(0).getStartClosed().getValues(0).getStringValue());
+    assertEquals("1000", keySet.getRanges(0).getEndOpen().getValues(0).getStringValue());
+    // NOTE: The end of the table is an empty closed end.
+    assertEquals(0, keySet.getRanges(1).getEndClosed().getValuesCount());
+    assertEquals(8, server.getRequests(ReadRequest.class).size());
+    assertEquals(0L, partitionExecutions(server));
+  }
+
+  @Test
+  public void testBytesFormat(EmbulkTester embulkTester, MockSpannerServer server)
+      throws Throwable {
+    // NOTE: BYTES values are encoded as base64 strings.
+    server.putQuery(
+        QUERY,
+        QueryResult.of(
+            Collections.singletonList(MockSpannerServer.field("v", TypeCode.BYTES)),
+            2,
+            i -> Collections.singletonList(MockSpannerServer.stringValue(i == 0 ? "/+A=" : ""))));
+    server.setPartitions(2);
+    ConfigSource inConfig = embulkTester.loadFromYamlString(configYaml("bytes_format: hex"));
+
+    embulkTester.runInput(
+        inConfig,
+        (rows) ->
+            assertEquals(
+                Arrays.asList("", "ffe0"),
+                rows.stream().map(r -> (String) r[0]).sorted().collect(Collectors.toList())));
+    assertEquals(2L, partitionExecutions(server));
+  }
+
+  @Test
+  public void testBytesFormatToJsonColumn(EmbulkTester embulkTester, MockSpannerServer server)
+      throws Throwable {
+    // NOTE: A JSON column of BYTES is written as JSON text by output plugins.
+    server.putQuery(
+        QUERY,
+        QueryResult.of(
+            Collections.singletonList(MockSpannerServer.field("v", TypeCode.BYTES)),
+            1,
+            i -> Collections.singletonList(MockSpannerServer.stringValue("/+A="))));
+    ConfigSource inConfig =
+        embulkTester.loadFromYamlString(
+            configYaml("bytes_format: base64", "column_options:", "  v: {type: json}"));
+
+    embulkTester.runInput(
+        inConfig,
+        (rows) -> {
+          assertEquals(1, rows.size());
+          assertEquals("\"/+A=\"", ((org.msgpack.value.Value) rows.get(0)[0]).toJson());
+        });
+  }
+
+  @Test
+  public void testNumericAndJsonAsString(EmbulkTester embulkTester, MockSpannerServer server)
+      throws Throwable {
+    String query = "SELECT n, j FROM numbers";
+    server.putQuery(
+        query,
+        QueryResult.of(
+            Arrays.asList(
+                MockSpannerServer.field("n", TypeCode.NUMERIC),
+                MockSpannerServer.field("j", TypeCode.JSON)),
+            100,
+            i ->
+                Arrays.asList(
+                    MockSpannerServer.stringValue(i + ".25"),
+                    MockSpannerServer.stringValue("{\"v\":" + i + "}"))));
+    server.setPartitions(2);
+    ConfigSource inConfig =
+        embulkTester.loadFromYamlString(
+            String.join(
+                "\n",
+                spanner.connectionConfigYaml(TEST_PROJECT, TEST_INSTANCE, TEST_DATABASE),
+                "query: " + query,
+                "json_as_string: true",
+                "column_options:",
+                "  n: {type: double}",
+                ""));
+
+    embulkTester.runInput(
+        inConfig,
+        (rows) -> {
+          assertEquals(100, rows.size());
+          for (Object[] row : rows) {
+            double n = (Double) row[0];
+            assertEquals(n - 0.25, Math.floor(n));
+            assertEquals("{\"v\":" + (long) Math.floor(n) + "}", row[1]);
+          }
+        });
+    assertEquals(2L, partitionExecutions(server));
+  }
+
+  @Test
+  public void testCommitTimestampColumn(EmbulkTester embulkTester, MockSpannerServer server)
+      throws Throwable {
+    String query = "SELECT v, updated_at FROM numbers";
+    QueryResult result =
+        QueryResult.of(
+            Arrays.asList(
+                MockSpannerServer.field("v", TypeCode.INT64),
+                MockSpannerServer.field("updated_at", TypeCode.TIMESTAMP)),
+            1_000,
+            i ->
+                Arrays.asList(
+                    MockSpannerServer.int64Value(i),
+                    MockSpannerServer.stringValue("2022-03-12T00:30:00Z")));
+    server.putQuery(query, result);
+    server.putQuery(
+        CommitTimestampRange.wrap(
+            query,
+            "updated_at",
+            Optional.of(Timestamp.parseTimestamp("2022-03-12T00:00:00Z")),
+            Timestamp.parseTimestamp("2022-03-12T01:00:00Z")),
+        result);
+    server.setPartitions(4);
+    ConfigSource inConfig =
+        embulkTester.loadFromYamlString(
+            String.join(
+                "\n",
+                spanner.connectionConfigYaml(TEST_PROJECT, TEST_INSTANCE, TEST_DATABASE),
+                "query: " + query,
+                "commit_timestamp_column: updated_at",
+                "last_commit_timestamp: '2022-03-12T00:00:00Z'",
+                "read_timestamp: '2022-03-12T01:00:00Z'",
+                "partition_concurrency: 2",
+                ""));
+
+    ConfigDiff configDiff =
+        embulkTester.runInput(
+            inConfig,
+            (rows) ->
+                assertArrayEquals(LongStream.range(0L, 1_000L).toArray(), sortedValues(rows)));
+    assertEquals("2022-03-12T01:00:00Z", configDiff.get(String.class, "last_commit_timestamp"));
+    // NOTE: The query without ORDER BY is read by partitions.
+    assertEquals(4L, partitionExecutions(server));
+  }
+
+  @Test
+  public void testChangeStream(EmbulkTester embulkTester, MockSpannerServer server)
+      throws Throwable {
+    // NOTE: The root partition splits into "a" and "b", which are merged into "c".
+    server.putQuery(
+        ChangeStreamRead.queryOf("numbers_stream"),
+        params -> {
+          com.google.protobuf.Value token = params.getFieldsOrThrow("partition_token");
+          if (token.hasNullValue()) {
+            return changeRecordOf(
+                Collections.emptyList(),
+                Collections.singletonList(childPartitionsRecord("a", "b")));
+          }
+          switch (token.getStringValue()) {
+            case "a":
+              return changeRecordOf(
+                  Collections.singletonList(dataChangeRecord("1", 1L)),
+                  Collections.singletonList(childPartitionsRecord("c")));
+            case "b":
+              return changeRecordOf(
+                  Collections.singletonList(dataChangeRecord("2", 2L)),
+                  Collections.singletonList(childPartitionsRecord("c")));
+            case "c":
+              return changeRecordOf(
+                  Collections.singletonList(dataChangeRecord("3", 3L, 4L)),
+                  Collections.emptyList());
+            default:
+              return null;
+          }
+        });
+    String end = "2022-03-12T01:00:00Z";
+    ConfigSource inConfig =
+        embulkTester.loadFromYamlString(
+            String.join(
+                "\n",
+                spanner.connectionConfigYaml(TEST_PROJECT, TEST_INSTANCE, TEST_DATABASE),
+                "read_mode: change_stream",
+                "change_stream: numbers_stream",
+                "change_stream_start_timestamp: " + CHANGE_STREAM_START,
+                "change_stream_end_timestamp: " + end,
+                "partition_concurrency: 2",
+                ""));
+
+    ConfigDiff configDiff =
+        embulkTester.runInput(
+            inConfig,
+            (rows) -> {
+              assertEquals(
+                  Arrays.asList("1", "2", "3", "3"),
+                  rows.stream().map(r -> (String) r[1]).sorted().collect(Collectors.toList()));
+              assertTrue(rows.stream().allMatch(r -> "INSERT".equals(r[4])));
+            });
+    assertEquals(end, configDiff.get(String.class, "last_change_stream_timestamp"));
+    List<ExecuteSqlRequest> queries =
+        server.getRequests(ExecuteSqlRequest.class).stream()
+            .filter(r -> r.getSql().equals(ChangeStreamRead.queryOf("numbers_stream")))
+            .collect(Collectors.toList());
+    // NOTE: The merged partition "c" is read once.
+    assertEquals(4, queries.size());
+    Struct params = queries.get(0).getParams();
+    assertEquals(CHANGE_STREAM_START, params.getFieldsOrThrow("start_timestamp").getStringValue());
+    assertEquals(end, params.getFieldsOrThrow("end_timestamp").getStringValue());
+  }
+}
@@ -1,14 +1,19 @@
 package org.embulk.input.spanner.extension.embulk;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import org.embulk.config.ConfigDiff;
 import org.embulk.config.ConfigLoader;
 import org.embulk.config.ConfigSource;
 import org.embulk.config.TaskReport;
+import org.embulk.config.TaskSource;
 import org.embulk.plugin.PluginType;
 import org.embulk.spi.ExecInternal;
 import org.embulk.spi.ExecSessionInternal;
@@ -21,17 +26,19 @@ public class EmbulkTester implements AutoCloseable {
 
   private final ExecSessionInternal execSessionInternal;
   private final AtomicBoolean closed = new AtomicBoolean(false);
+  private List<TaskReport> taskReports = Collections.emptyList();
 
   EmbulkTester(ExecSessionInternal execSessionInternal) {
     this.execSessionInternal = execSessionInternal;
   }
 
-  public void runInput(ConfigSource inConfig, Consumer<List<Object[]>> assertion) throws Throwable {
+  public ConfigDiff runInput(ConfigSource inConfig, Consumer<List<Object[]>> assertion)
+      throws Throwable {
     if (closed.get()) {
       throw new IllegalStateException("EmbulkTester is already closed.");
     }
     try {
-      ExecInternal.doWith(
+      return ExecInternal.doWith(
           this.execSessionInternal,
           () -> {
             InputPlugin plugin =
@@ -54,6 +61,7 @@ public class EmbulkTester implements AutoCloseable {
                   List<Page> pages =
                       outputs.stream().flatMap(o -> o.pages.stream()).collect(Collectors.toList());
                   assertion.accept(toObjects(schema, pages));
+                  taskReports = reports;
                   return reports;
                 });
           });
@@ -62,6 +70,88 @@ public class EmbulkTester implements AutoCloseable {
     }
   }
 
+  // NOTE: Runs the input in the same way as `embulk run -r`. When some of the tasks fail, the
+  //       transaction fails, and then only the failed tasks are run again by resume() with the
+  //       task source of the failed transaction. The assertion receives the rows of all the
+  //       successful tasks of both runs.
+  public ConfigDiff runInputWithResume(ConfigSource inConfig, Consumer<List<Object[]>> assertion)
+      throws Throwable {
+    if (closed.get()) {
+      throw new IllegalStateException("EmbulkTester is already closed.");
+    }
+    try {
+      return ExecInternal.doWith(
+          this.execSessionInternal,
+          () -> {
+            InputPlugin plugin =
+                ExecInternal.newPlugin(InputPlugin.class, inConfig.get(PluginType.class, "type"));
+            List<Page> pages = new ArrayList<>();
+            AtomicReference<TaskSource> resumeTaskSource = new AtomicReference<>();
+            AtomicReference<Schema> resumeSchema = new AtomicReference<>();
+            List<TaskReport> reports = new ArrayList<>();
+            try {
+              plugin.transaction(
+                  inConfig,
+                  (taskSource, schema, taskCount) -> {
+                    resumeTaskSource.set(taskSource);
+                    resumeSchema.set(schema);
+                    reports.addAll(Collections.nCopies(taskCount, null));
+                    runTasks(plugin, taskSource, schema, reports, pages);
+                    return reports;
+                  });
+              throw new AssertionError("The transaction did not fail.");
+            } catch (RuntimeException e) {
+              if (resumeTaskSource.get() == null || !reports.contains(null)) {
+                throw e;
+              }
+            }
+            ConfigDiff configDiff =
+                plugin.resume(
+                    resumeTaskSource.get(),
+                    resumeSchema.get(),
+                    reports.size(),
+                    (taskSource, schema, taskCount) -> {
+                      runTasks(plugin, taskSource, schema, reports, pages);
+                      return reports;
+                    });
+            assertion.accept(toObjects(resumeSchema.get(), pages));
+            return configDiff;
+          });
+    } catch (ExecutionException e) {
+      throw e.getCause();
+    }
+  }
+
+  // NOTE: Runs the tasks that have no report yet, and fails if any of them fails.
+  private void runTasks(
+      InputPlugin plugin,
+      TaskSource taskSource,
+      Schema schema,
+      List<TaskReport> reports,
+      List<Page> pages) {
+    RuntimeException error = null;
+    for (int taskIndex = 0; taskIndex < reports.size(); taskIndex++) {
+      if (reports.get(taskIndex) != null) {
+        continue;
+      }
+      MockPageOutput output = new MockPageOutput();
+      try {
+        reports.set(taskIndex, plugin.run(taskSource, schema, taskIndex, output));
+        pages.addAll(output.pages);
+      } catch (RuntimeException e) {
+        error = e;
+      }
+    }
+    if (error != null) {
+      throw error;
+    }
+  }
+
+  // NOTE: The task reports of the last run of runInput.
+  public List<TaskReport> getTaskReports() {
+    return taskReports;
+  }
+
   @SuppressWarnings("deprecation")
   private List<Object[]> toObjects(Schema schema, List<Page> pages) {
     return Pages.toObjects(schema, pages);
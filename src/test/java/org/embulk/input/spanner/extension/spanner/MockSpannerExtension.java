@@ -0,0 +1,71 @@
+package org.embulk.input.spanner.extension.spanner;
+
+import org.junit.jupiter.api.extension.AfterAllCallback;
+import org.junit.jupiter.api.extension.BeforeAllCallback;
+import org.junit.jupiter.api.extension.BeforeEachCallback;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.api.extension.ParameterContext;
+import org.junit.jupiter.api.extension.ParameterResolutionException;
+import org.junit.jupiter.api.extension.ParameterResolver;
+
+// NOTE: Starts a MockSpannerServer for the test class, and resets it before each test. Tests
+//       receive the server as a parameter to register queries and to inject latency or errors.
+public class MockSpannerExtension
+    implements BeforeAllCallback, AfterAllCallback, BeforeEachCallback, ParameterResolver {
+
+  private MockSpannerServer server = null;
+
+  @Override
+  public void beforeAll(ExtensionContext context) throws Exception {
+    server = new MockSpannerServer();
+  }
+
+  @Override
+  public void afterAll(ExtensionContext context) throws Exception {
+    if (server != null) {
+      server.close();
+      server = null;
+    }
+  }
+
+  @Override
+  public void beforeEach(ExtensionContext context) throws Exception {
+    server.reset();
+  }
+
+  @Override
+  public boolean supportsParameter(
+      ParameterContext parameterContext, ExtensionContext extensionContext)
+      throws ParameterResolutionException {
+    return parameterContext.getParameter().getType().equals(MockSpannerServer.class);
+  }
+
+  @Override
+  public Object resolveParameter(
+      ParameterContext parameterContext, ExtensionContext extensionContext)
+      throws ParameterResolutionException {
+    return server;
+  }
+
+  public MockSpannerServer getServer() {
+    return server;
+  }
+
+  // NOTE: The connection options of the plugin for the server. The JDBC driver must not create the
+  //       instance and the database as it does for the emulator, while `use_emulator` makes both
+  //       the JDBC driver and the Spanner client use a plain text channel without credentials.
+  public String connectionConfigYaml(String projectId, String instanceId, String databaseId) {
+    return String.join(
+        "\n",
+        "type: spanner",
+        "project_id: " + projectId,
+        "instance_id: " + instanceId,
+        "database_id: " + databaseId,
+        "host: " + server.getHost(),
+        "port: " + server.getPort(),
+        "use_emulator: true",
+        "options: {autoConfigEmulator: 'false'}",
+        "socket_timeout: 0",
+        "");
+  }
+}
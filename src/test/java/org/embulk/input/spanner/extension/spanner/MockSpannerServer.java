@@ -0,0 +1,648 @@
+package org.embulk.input.spanner.extension.spanner;
+
+import com.google.protobuf.AbstractMessage;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Empty;
+import com.google.protobuf.ListValue;
+import com.google.protobuf.Struct;
+import com.google.protobuf.Value;
+import com.google.spanner.v1.BatchCreateSessionsRequest;
+import com.google.spanner.v1.BatchCreateSessionsResponse;
+import com.google.spanner.v1.BeginTransactionRequest;
+import com.google.spanner.v1.CreateSessionRequest;
+import com.google.spanner.v1.DeleteSessionRequest;
+import com.google.spanner.v1.ExecuteSqlRequest;
+import com.google.spanner.v1.ExecuteSqlRequest.QueryMode;
+import com.google.spanner.v1.GetSessionRequest;
+import com.google.spanner.v1.PartialResultSet;
+import com.google.spanner.v1.Partition;
+import com.google.spanner.v1.PartitionQueryRequest;
+import com.google.spanner.v1.PartitionReadRequest;
+import com.google.spanner.v1.PartitionResponse;
+import com.google.spanner.v1.ResultSet;
+import com.google.spanner.v1.ResultSetMetadata;
+import com.google.spanner.v1.ReadRequest;
+import com.google.spanner.v1.ResultSetStats;
+import com.google.spanner.v1.RollbackRequest;
+import com.google.spanner.v1.Session;
+import com.google.spanner.v1.SpannerGrpc;
+import com.google.spanner.v1.StructType;
+import com.google.spanner.v1.Transaction;
+import com.google.spanner.v1.TransactionOptions;
+import com.google.spanner.v1.TransactionSelector;
+import com.google.spanner.v1.Type;
+import com.google.spanner.v1.TypeCode;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import io.grpc.stub.StreamObserver;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+// NOTE: A stand-in of the Spanner API in the test process, which serves registered queries with
+//       generated rows. Unlike the Spanner Emulator, it returns the configured number of partitions
+//       for any query, serves PLAN mode, and can inject latency and errors per RPC method. It
+//       listens on a local port because the JDBC driver connects by host and port.
+public class MockSpannerServer implements AutoCloseable {
+  public static final String BATCH_CREATE_SESSIONS = "BatchCreateSessions";
+  public static final String BEGIN_TRANSACTION = "BeginTransaction";
+  public static final String EXECUTE_SQL = "ExecuteSql";
+  public static final String EXECUTE_STREAMING_SQL = "ExecuteStreamingSql";
+  public static final String PARTITION_QUERY = "PartitionQuery";
+  public static final String PARTITION_READ = "PartitionRead";
+  public static final String STREAMING_READ = "StreamingRead";
+
+  // NOTE: The same message as the one Spanner returns for a query that cannot be partitioned.
+  public static final String NON_DISTRIBUTED_UNION_QUERY_MESSAGE =
+      "Query is not root partitionable since it does not have a DistributedUnion at the root. Please run EXPLAIN for query plan details.";
+
+  private static final int DEFAULT_CHUNK_ROWS = 1000;
+
+  @FunctionalInterface
+  public interface RowGenerator {
+    List<Value> row(long index);
+  }
+
+  public static class QueryResult {
+    private final StructType rowType;
+    private final long rows;
+    private final RowGenerator generator;
+    private final boolean partitionable;
+
+    private QueryResult(
+        StructType rowType, long rows, RowGenerator generator, boolean partitionable) {
+      this.rowType = rowType;
+      this.rows = rows;
+      this.generator = generator;
+      this.partitionable = partitionable;
+    }
+
+    public static QueryResult of(List<StructType.Field> fields, long rows, RowGenerator generator) {
+      return new QueryResult(
+          StructType.newBuilder().addAllFields(fields).build(), rows, generator, true);
+    }
+
+    // NOTE: A result of `SELECT <name> FROM ...` that returns 0, 1, ..., rows - 1.
+    public static QueryResult int64Sequence(String name, long rows) {
+      return of(
+          Collections.singletonList(field(name, TypeCode.INT64)),
+          rows,
+          i -> Collections.singletonList(int64Value(i)));
+    }
+
+    public QueryResult notRootPartitionable() {
+      return new QueryResult(rowType, rows, generator, false);
+    }
+
+    public long getRows() {
+      return rows;
+    }
+  }
+
+  public static StructType.Field field(String name, TypeCode code) {
+    return StructType.Field.newBuilder()
+        .setName(name)
+        .setType(Type.newBuilder().setCode(code))
+        .build();
+  }
+
+  public static StructType.Field field(String name, Type type) {
+    return StructType.Field.newBuilder().setName(name).setType(type).build();
+  }
+
+  public static Type arrayOfStruct(StructType.Field... fields) {
+    return Type.newBuilder()
+        .setCode(TypeCode.ARRAY)
+        .setArrayElementType(
+            Type.newBuilder()
+                .setCode(TypeCode.STRUCT)
+                .setStructType(StructType.newBuilder().addAllFields(Arrays.asList(fields))))
+        .build();
+  }
+
+  public static Value int64Value(long v) {
+    // NOTE: INT64 values are encoded as decimal strings.
+    return Value.newBuilder().setStringValue(Long.toString(v)).build();
+  }
+
+  public static Value float64Value(double v) {
+    return Value.newBuilder().setNumberValue(v).build();
+  }
+
+  public static Value stringValue(String v) {
+    return Value.newBuilder().setStringValue(v).build();
+  }
+
+  public static Value boolValue(boolean v) {
+    return Value.newBuilder().setBoolValue(v).build();
+  }
+
+  // NOTE: ARRAY and STRUCT values are encoded as lists of the elements and the fields.
+  public static Value listValue(List<Value> values) {
+    return Value.newBuilder().setListValue(ListValue.newBuilder().addAllValues(values)).build();
+  }
+
+  public static Value nullValue() {
+    return Value.newBuilder().setNullValueValue(0).build();
+  }
+
+  private final Map<String, Function<Struct, QueryResult>> queries = new ConcurrentHashMap<>();
+  private final Map<String, QueryResult> tables = new ConcurrentHashMap<>();
+  private final Map<String, AtomicLong> requestCounts = new ConcurrentHashMap<>();
+  private final Map<String, Long> latencies = new ConcurrentHashMap<>();
+  private final Map<String, Queue<InjectedError>> errors = new ConcurrentHashMap<>();
+  private final Map<String, Queue<InjectedError>> streamErrors = new ConcurrentHashMap<>();
+  private final List<AbstractMessage> requests = Collections.synchronizedList(new ArrayList<>());
+  private final AtomicLong sequence = new AtomicLong();
+  private volatile int partitions = 1;
+  private volatile int chunkRows = DEFAULT_CHUNK_ROWS;
+
+  private final Server server;
+
+  public MockSpannerServer() throws IOException {
+    this.server =
+        NettyServerBuilder.forAddress(new InetSocketAddress("localhost", 0))
+            .addService(new Service())
+            .build()
+            .start();
+  }
+
+  public int getPort() {
+    return server.getPort();
+  }
+
+  public String getHost() {
+    return "localhost";
+  }
+
+  public void putQuery(String sql, QueryResult result) {
+    putQuery(sql, params -> result);
+  }
+
+  // NOTE: The result is resolved from the parameters of each request.
+  public void putQuery(String sql, Function<Struct, QueryResult> resolver) {
+    queries.put(normalize(sql), resolver);
+  }
+
+  // NOTE: The rows that the Read API reads from the table regardless of the key set, the index and
+  //       the columns, which tests can assert through the requests.
+  public void putTable(String table, QueryResult result) {
+    tables.put(table, result);
+  }
+
+  // NOTE: The number of partitions that PartitionQuery returns, unless `max_partitions` is less.
+  public void setPartitions(int partitions) {
+    this.partitions = partitions;
+  }
+
+  public void setChunkRows(int chunkRows) {
+    this.chunkRows = chunkRows;
+  }
+
+  // NOTE: Sleeps before responding to each call of the method.
+  public void setLatency(String method, long latency, TimeUnit unit) {
+    latencies.put(method, unit.toMillis(latency));
+  }
+
+  private static class InjectedError {
+    private final Predicate<AbstractMessage> matcher;
+    private final Status status;
+    private final long afterRows;
+
+    InjectedError(Predicate<AbstractMessage> matcher, Status status, long afterRows) {
+      this.matcher = matcher;
+      this.status = status;
+      this.afterRows = afterRows;
+    }
+  }
+
+  // NOTE: The next call of the method fails with the status. Errors are consumed in order.
+  public void addError(String method, Status status) {
+    addError(method, request -> true, status);
+  }
+
+  // NOTE: The next call of the method whose request matches fails with the status.
+  public void addError(String method, Predicate<AbstractMessage> matcher, Status status) {
+    errors
+        .computeIfAbsent(method, k -> new ConcurrentLinkedQueue<>())
+        .add(new InjectedError(matcher, status, 0L));
+  }
+
+  // NOTE: The stream of the next call of the method whose request matches fails with the status
+  //       after the rows are sent. The Spanner client resumes the stream by the resume token only
+  //       when the status is UNAVAILABLE.
+  public void addStreamError(
+      String method, Predicate<AbstractMessage> matcher, long afterRows, Status status) {
+    streamErrors
+        .computeIfAbsent(method, k -> new ConcurrentLinkedQueue<>())
+        .add(new InjectedError(matcher, status, afterRows));
+  }
+
+  public long getRequestCount(String method) {
+    AtomicLong count = requestCounts.get(method);
+    return count == null ? 0L : count.get();
+  }
+
+  public <T extends AbstractMessage> List<T> getRequests(Class<T> type) {
+    synchronized (requests) {
+      return requests.stream()
+          .filter(type::isInstance)
+          .map(type::cast)
+          .collect(Collectors.toList());
+    }
+  }
+
+  public void reset() {
+    queries.clear();
+    tables.clear();
+    requestCounts.clear();
+    latencies.clear();
+    errors.clear();
+    streamErrors.clear();
+    requests.clear();
+    partitions = 1;
+    chunkRows = DEFAULT_CHUNK_ROWS;
+  }
+
+  @Override
+  public void close() throws InterruptedException {
+    server.shutdownNow();
+    server.awaitTermination(10, TimeUnit.SECONDS);
+  }
+
+  // NOTE: Statement hints such as the emulator's one are not a part of the registered queries.
+  static String normalize(String sql) {
+    String s = sql.trim();
+    while (s.startsWith("@{")) {
+      int end = s.indexOf('}');
+      if (end < 0) {
+        break;
+      }
+      s = s.substring(end + 1).trim();
+    }
+    if (s.endsWith(";")) {
+      s = s.substring(0, s.length() - 1).trim();
+    }
+    return s;
+  }
+
+  private void receive(String method, AbstractMessage request) throws StatusRuntimeException {
+    requestCounts.computeIfAbsent(method, k -> new AtomicLong()).incrementAndGet();
+    requests.add(request);
+    Long latency = latencies.get(method);
+    if (latency != null && latency > 0) {
+      try {
+        Thread.sleep(latency);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw Status.CANCELLED.withCause(e).asRuntimeException();
+      }
+    }
+    InjectedError error = takeError(errors, method, request);
+    if (error != null) {
+      throw error.status.asRuntimeException();
+    }
+  }
+
+  private static InjectedError takeError(
+      Map<String, Queue<InjectedError>> errors, String method, AbstractMessage request) {
+    Queue<InjectedError> queue = errors.get(method);
+    if (queue != null) {
+      for (InjectedError error : queue) {
+        if (error.matcher.test(request) && queue.remove(error)) {
+          return error;
+        }
+      }
+    }
+    return null;
+  }
+
+  private QueryResult lookup(String sql, Struct params) {
+    Function<Struct, QueryResult> resolver = queries.get(normalize(sql));
+    QueryResult result = resolver == null ? null : resolver.apply(params);
+    if (result == null) {
+      throw Status.INVALID_ARGUMENT
+          .withDescription("The query is not registered to MockSpannerServer: " + sql)
+          .asRuntimeException();
+    }
+    return result;
+  }
+
+  private QueryResult lookupTable(String table) {
+    QueryResult result = tables.get(table);
+    if (result == null) {
+      throw Status.NOT_FOUND
+          .withDescription("The table is not registered to MockSpannerServer: " + table)
+          .asRuntimeException();
+    }
+    return result;
+  }
+
+  private Session newSession(String database) {
+    return Session.newBuilder()
+        .setName(database + "/sessions/s" + sequence.incrementAndGet())
+        .build();
+  }
+
+  private Transaction newTransaction(TransactionOptions options, boolean withId) {
+    Transaction.Builder builder = Transaction.newBuilder();
+    if (withId) {
+      builder.setId(ByteString.copyFromUtf8("t" + sequence.incrementAndGet()));
+    }
+    TransactionOptions.ReadOnly readOnly = options.getReadOnly();
+    if (readOnly.hasReadTimestamp()) {
+      builder.setReadTimestamp(readOnly.getReadTimestamp());
+    } else {
+      long now = System.currentTimeMillis();
+      builder.setReadTimestamp(
+          com.google.protobuf.Timestamp.newBuilder()
+              .setSeconds(now / 1000)
+              .setNanos((int) (now % 1000) * 1_000_000));
+    }
+    return builder.build();
+  }
+
+  private ResultSetMetadata newMetadata(QueryResult result, TransactionSelector selector) {
+    ResultSetMetadata.Builder builder = ResultSetMetadata.newBuilder().setRowType(result.rowType);
+    if (selector.hasBegin()) {
+      builder.setTransaction(newTransaction(selector.getBegin(), true));
+    } else if (selector.hasSingleUse() && selector.getSingleUse().hasReadOnly()) {
+      builder.setTransaction(newTransaction(selector.getSingleUse(), false));
+    }
+    return builder.build();
+  }
+
+  // NOTE: A partition token is "<index>/<count>", and the partition reads the index-th range of
+  //       the rows split into count ranges.
+  private static long[] rangeOf(QueryResult result, ByteString partitionToken) {
+    if (partitionToken.isEmpty()) {
+      return new long[] {0L, result.rows};
+    }
+    String[] parts = partitionToken.toStringUtf8().split("/");
+    long index = Long.parseLong(parts[0]);
+    long count = Long.parseLong(parts[1]);
+    return new long[] {result.rows * index / count, result.rows * (index + 1) / count};
+  }
+
+  private static List<Value> rowOf(QueryResult result, long index) {
+    List<Value> row = result.generator.row(index);
+    if (row.size() != result.rowType.getFieldsCount()) {
+      throw Status.INTERNAL
+          .withDescription(
+              String.format(
+                  "The row %d has %d values for %d columns.",
+                  index, row.size(), result.rowType.getFieldsCount()))
+          .asRuntimeException();
+    }
+    return row;
+  }
+
+  private PartitionResponse newPartitionResponse(
+      TransactionSelector selector, long maxPartitions) {
+    long count = partitions;
+    if (maxPartitions > 0 && maxPartitions < count) {
+      count = maxPartitions;
+    }
+    Transaction transaction =
+        selector.hasBegin()
+            ? newTransaction(selector.getBegin(), true)
+            : Transaction.newBuilder().setId(selector.getId()).build();
+    PartitionResponse.Builder response = PartitionResponse.newBuilder().setTransaction(transaction);
+    for (long i = 0; i < count; i++) {
+      response.addPartitions(
+          Partition.newBuilder().setPartitionToken(ByteString.copyFromUtf8(i + "/" + count)));
+    }
+    return response.build();
+  }
+
+  // NOTE: Streams the rows of the partition in chunks. The resume token is the index of the next
+  //       row, so a retried stream resumes there.
+  private void stream(
+      String method,
+      AbstractMessage request,
+      QueryResult result,
+      ResultSetMetadata metadata,
+      ByteString partitionToken,
+      ByteString resumeToken,
+      StreamObserver<PartialResultSet> observer) {
+    InjectedError error = takeError(streamErrors, method, request);
+    long sentRows = 0;
+    long[] range = rangeOf(result, partitionToken);
+    long offset = range[0];
+    if (!resumeToken.isEmpty()) {
+      offset = Long.parseLong(resumeToken.toStringUtf8());
+    }
+    boolean first = true;
+    do {
+      long end = Math.min(offset + chunkRows, range[1]);
+      PartialResultSet.Builder chunk = PartialResultSet.newBuilder();
+      if (first) {
+        chunk.setMetadata(metadata);
+        first = false;
+      }
+      for (long i = offset; i < end; i++) {
+        chunk.addAllValues(rowOf(result, i));
+      }
+      chunk.setResumeToken(ByteString.copyFromUtf8(Long.toString(end)));
+      observer.onNext(chunk.build());
+      sentRows += end - offset;
+      offset = end;
+      if (error != null && sentRows >= error.afterRows) {
+        observer.onError(error.status.asRuntimeException());
+        return;
+      }
+    } while (offset < range[1]);
+    observer.onCompleted();
+  }
+
+  private class Service extends SpannerGrpc.SpannerImplBase {
+    @Override
+    public void createSession(CreateSessionRequest request, StreamObserver<Session> observer) {
+      try {
+        receive("CreateSession", request);
+        observer.onNext(newSession(request.getDatabase()));
+        observer.onCompleted();
+      } catch (StatusRuntimeException e) {
+        observer.onError(e);
+      }
+    }
+
+    @Override
+    public void batchCreateSessions(
+        BatchCreateSessionsRequest request, StreamObserver<BatchCreateSessionsResponse> observer) {
+      try {
+        receive(BATCH_CREATE_SESSIONS, request);
+        BatchCreateSessionsResponse.Builder response = BatchCreateSessionsResponse.newBuilder();
+        for (int i = 0; i < request.getSessionCount(); i++) {
+          response.addSession(newSession(request.getDatabase()));
+        }
+        observer.onNext(response.build());
+        observer.onCompleted();
+      } catch (StatusRuntimeException e) {
+        observer.onError(e);
+      }
+    }
+
+    @Override
+    public void getSession(GetSessionRequest request, StreamObserver<Session> observer) {
+      try {
+        receive("GetSession", request);
+        observer.onNext(Session.newBuilder().setName(request.getName()).build());
+        observer.onCompleted();
+      } catch (StatusRuntimeException e) {
+        observer.onError(e);
+      }
+    }
+
+    @Override
+    public void deleteSession(DeleteSessionRequest request, StreamObserver<Empty> observer) {
+      try {
+        receive("DeleteSession", request);
+        observer.onNext(Empty.getDefaultInstance());
+        observer.onCompleted();
+      } catch (StatusRuntimeException e) {
+        observer.onError(e);
+      }
+    }
+
+    @Override
+    public void beginTransaction(
+        BeginTransactionRequest request, StreamObserver<Transaction> observer) {
+      try {
+        receive(BEGIN_TRANSACTION, request);
+        observer.onNext(newTransaction(request.getOptions(), true));
+        observer.onCompleted();
+      } catch (StatusRuntimeException e) {
+        observer.onError(e);
+      }
+    }
+
+    @Override
+    public void rollback(RollbackRequest request, StreamObserver<Empty> observer) {
+      try {
+        receive("Rollback", request);
+        observer.onNext(Empty.getDefaultInstance());
+        observer.onCompleted();
+      } catch (StatusRuntimeException e) {
+        observer.onError(e);
+      }
+    }
+
+    @Override
+    public void partitionQuery(
+        PartitionQueryRequest request, StreamObserver<PartitionResponse> observer) {
+      try {
+        receive(PARTITION_QUERY, request);
+        QueryResult result = lookup(request.getSql(), request.getParams());
+        if (!result.partitionable) {
+          throw Status.INVALID_ARGUMENT
+              .withDescription(NON_DISTRIBUTED_UNION_QUERY_MESSAGE)
+              .asRuntimeException();
+        }
+        observer.onNext(
+            newPartitionResponse(
+                request.getTransaction(), request.getPartitionOptions().getMaxPartitions()));
+        observer.onCompleted();
+      } catch (StatusRuntimeException e) {
+        observer.onError(e);
+      }
+    }
+
+    @Override
+    public void executeStreamingSql(
+        ExecuteSqlRequest request, StreamObserver<PartialResultSet> observer) {
+      try {
+        receive(EXECUTE_STREAMING_SQL, request);
+        QueryResult result = lookup(request.getSql(), request.getParams());
+        ResultSetMetadata metadata = newMetadata(result, request.getTransaction());
+        if (request.getQueryMode() == QueryMode.PLAN) {
+          observer.onNext(
+              PartialResultSet.newBuilder()
+                  .setMetadata(metadata)
+                  .setStats(ResultSetStats.getDefaultInstance())
+                  .build());
+          observer.onCompleted();
+          return;
+        }
+
+        stream(
+            EXECUTE_STREAMING_SQL,
+            request,
+            result,
+            metadata,
+            request.getPartitionToken(),
+            request.getResumeToken(),
+            observer);
+      } catch (StatusRuntimeException e) {
+        observer.onError(e);
+      }
+    }
+
+    @Override
+    public void partitionRead(
+        PartitionReadRequest request, StreamObserver<PartitionResponse> observer) {
+      try {
+        receive(PARTITION_READ, request);
+        lookupTable(request.getTable());
+        observer.onNext(
+            newPartitionResponse(
+                request.getTransaction(), request.getPartitionOptions().getMaxPartitions()));
+        observer.onCompleted();
+      } catch (StatusRuntimeException e) {
+        observer.onError(e);
+      }
+    }
+
+    @Override
+    public void streamingRead(ReadRequest request, StreamObserver<PartialResultSet> observer) {
+      try {
+        receive(STREAMING_READ, request);
+        QueryResult result = lookupTable(request.getTable());
+        stream(
+            STREAMING_READ,
+            request,
+            result,
+            newMetadata(result, request.getTransaction()),
+            request.getPartitionToken(),
+            request.getResumeToken(),
+            observer);
+      } catch (StatusRuntimeException e) {
+        observer.onError(e);
+      }
+    }
+
+    @Override
+    public void executeSql(ExecuteSqlRequest request, StreamObserver<ResultSet> observer) {
+      try {
+        receive(EXECUTE_SQL, request);
+        QueryResult result = lookup(request.getSql(), request.getParams());
+        ResultSet.Builder response =
+            ResultSet.newBuilder().setMetadata(newMetadata(result, request.getTransaction()));
+        if (request.getQueryMode() != QueryMode.PLAN) {
+          long[] range = rangeOf(result, request.getPartitionToken());
+          for (long i = range[0]; i < range[1]; i++) {
+            response.addRows(ListValue.newBuilder().addAllValues(rowOf(result, i)));
+          }
+        }
+        observer.onNext(response.build());
+        observer.onCompleted();
+      } catch (StatusRuntimeException e) {
+        observer.onError(e);
+      }
+    }
+  }
+}